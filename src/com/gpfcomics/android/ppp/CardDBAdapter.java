@@ -27,6 +27,13 @@
 */
 package com.gpfcomics.android.ppp;
 
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+
+import com.gpfcomics.android.ppp.jppp.PPPciphers;
+import com.gpfcomics.android.ppp.jppp.PPPengine;
+import com.gpfcomics.android.ppp.jppp.PasscodeLocator;
+
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
@@ -741,6 +748,79 @@ class CardDBAdapter {
     	} else return false;
     }
 
+    /**
+     * Find which card set, card, column and row a passcode came from.  This is
+     * mostly a support tool:  when a user says a passcode didn't work, this tells
+     * us where it actually sits.  Each card set is searched from its first card
+     * through its last used card plus the given number of cards beyond it, in
+     * parallel, stopping at the first match.
+     * @param passcode The passcode to look for
+     * @param extraCards How many cards past each card set's last used card to search
+     * @param executor An ExecutorService to run the search on
+     * @param parallelism How many threads to search with
+     * @return A long array with four elements:  the card set ID, card, column and
+     * row of the passcode.  If the passcode wasn't found or something went wrong,
+     * returns null.
+     */
+    long[] locatePasscode(String passcode, int extraCards, ExecutorService executor,
+    		int parallelism) {
+    	try {
+    		// Get the IDs first so we don't hold the cursor open while we search:
+    		ArrayList<Long> ids = new ArrayList<Long>();
+			Cursor c = mDb.rawQuery("select " + KEY_CARDSETID + " from " +
+					DATABASE_TABLE_CARDSETS + " order by " + KEY_CARDSETID + " asc;",
+					null);
+			if (c != null) {
+				c.moveToFirst();
+				while (!c.isAfterLast()) {
+					ids.add(c.getLong(c.getColumnIndex(KEY_CARDSETID)));
+					c.moveToNext();
+				}
+				c.close();
+			}
+			// Now search each card set in turn:
+			for (Long id : ids) {
+				Cardset cardset = getCardset(id);
+				if (cardset == null) continue;
+				// Unlike Cardset.createEngine(), let the engine pick the fastest
+				// cipher backend.  Timing them all is a one-off cost that would
+				// stall the UI thread, but we're on a worker thread here, and the
+				// scan is bound by AES:  jppp manages 4 to 5 million counters a
+				// second per core, while a JCA provider using the processor's
+				// AES instructions can do several times that.
+				PPPengine ppp = new PPPengine(cardset.getEngineConfig(),
+						cardset.getSequenceKey(), PPPciphers.AUTO);
+				long cards = Math.min((long)Math.max(cardset.getLastCard(),
+						Cardset.FIRST_CARD) + extraCards, Cardset.FINAL_CARD);
+				long[] found = null;
+				try {
+					long counter = PasscodeLocator.locate(ppp, passcode, 0L,
+							cards * cardset.getNumberOfColumns() * cardset.getNumberOfRows(),
+							executor, parallelism);
+					if (counter != PasscodeLocator.NOT_FOUND) {
+						found = new long[4];
+						found[0] = id;
+						found[1] = ppp.getCard(counter);
+						found[2] = ppp.getColumn(counter);
+						found[3] = ppp.getRow(counter);
+					}
+				// Don't leave this card set's expanded key lying around:
+				} finally {
+					ppp.destroy();
+				}
+				if (found != null) return found;
+			}
+			return null;
+		// If we were interrupted, pass that along and give up:
+    	} catch (InterruptedException e) {
+    		Thread.currentThread().interrupt();
+    		return null;
+    	// If anything blew up, return null:
+    	} catch (Exception e) {
+    		return null;
+    	}
+    }
+
     /* ##### Private Methods ##### */
     
     /**
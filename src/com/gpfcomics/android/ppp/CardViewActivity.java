@@ -63,7 +63,8 @@ import android.widget.TextView;
 import android.widget.Toast;
 import android.widget.ToggleButton;
 
-import com.gpfcomics.android.ppp.jppp.PPPengine;;
+import com.gpfcomics.android.ppp.jppp.PPPengine;
+import com.gpfcomics.android.ppp.jppp.PasscodeGrid;
 
 /**
  * This Card View Activity does the actual work of displaying a Perfect Paper Passwords
@@ -179,11 +180,10 @@ public class CardViewActivity extends Activity implements
 	 *  indices are zero-based while the row/column numbers are one-based. */
 	private boolean[][] toggles = null;
 	
-	/** This two-dimensional String array stores the generated passcode values for the
-	 *  card's various ToggleButtons.  The first dimension is for rows and the second
-	 *  for columns.  Note that array indices are zero-based while the row/column
-	 *  numbers are one-based. */
-	private String[][] passcodes = null;
+	/** This grid stores the generated passcode values for the card's various
+	 *  ToggleButtons as a single flat block of characters.  Unlike the toggle
+	 *  array, it is addressed by the one-based row/column numbers directly. */
+	private PasscodeGrid passcodes = null;
 
 	/** Called when the activity is first created. */
     @Override
@@ -239,6 +239,12 @@ public class CardViewActivity extends Activity implements
         		cardSet = state.getCardset();
         		passcodes = state.getPasscodes();
         		toggles = state.getToggles();
+        		// If we were torn down part way through building a new card, the
+        		// saved grid could still belong to the card we were on before.
+        		// Only reuse it if it's for the card we're showing now:
+        		if (passcodes != null && cardSet != null &&
+        				passcodes.getCard() != cardSet.getLastCard())
+        			passcodes = null;
         	}
         	
 	        // Go ahead and compute the total number of passcodes on the card.  This
@@ -257,14 +263,10 @@ public class CardViewActivity extends Activity implements
 	        	setRequestedOrientation(ActivityInfo.SCREEN_ORIENTATION_UNSPECIFIED);
 	        
 	        // Initialize the PPP engine given the parameters specified within
-	        // the card set object.  I'm not sure why the other parameters besides
-	        // the sequence key are static method calls, but they are.  We might
-	        // tweak that before we release the code.
-	        PPPengine.setAlphabet(cardSet.getAlphabet());
-	        PPPengine.setCardColumns(cardSet.getNumberOfColumns());
-	        PPPengine.setCardRows(cardSet.getNumberOfRows());
-	        PPPengine.setPasscodeLength(cardSet.getPasscodeLength());
-	    	ppp = new PPPengine(cardSet.getSequenceKey());
+	        // the card set object.  The engine takes its own immutable copy of
+	        // those parameters, so it won't be affected by any other engine
+	        // running elsewhere in the app.
+	    	ppp = cardSet.createEngine();
 	        
 	    	// Get handier references to our buttons and labels:
 	        btnPrevious = (Button)findViewById(R.id.card_previous_button);
@@ -476,8 +478,9 @@ public class CardViewActivity extends Activity implements
 		            		// before.  Go ahead and populate it; it seems to work in
 		            		// this case.
 	            			} else {
-		            			tb.setTextOn(passcodes[row - 1][col - 1]);
-		            			tb.setTextOff(passcodes[row - 1][col - 1]);
+		            			String passcode = passcodes.getPasscode(col, row);
+		            			tb.setTextOn(passcode);
+		            			tb.setTextOff(passcode);
 	            			}
 	            			// Set our gravity, padding, and typeface:
 	            			tb.setGravity(Gravity.CENTER);
@@ -787,8 +790,9 @@ public class CardViewActivity extends Activity implements
 	    		        				row * btnRowOffset + col);
 	    		        		// The button text should always display the passcode value,
 	    		        		// regardless of state:
-	    		    			tb.setTextOn(passcodes[row - 1][col - 1]);
-	    		    			tb.setTextOff(passcodes[row - 1][col - 1]);
+	    		    			String passcode = passcodes.getPasscode(col, row);
+	    		    			tb.setTextOn(passcode);
+	    		    			tb.setTextOff(passcode);
 	    		    			// If we got useful toggle data and this passcode has been
 	    		    			// toggled, "strike through" this button so the passcode
 	    		    			// remains struck.  Note that the toggle array indices are
@@ -847,32 +851,33 @@ public class CardViewActivity extends Activity implements
             	// Get our toggle data for the current card from the database.  Note
             	// that this could return a null value if an error occurs.
             	toggles = DBHelper.getTogglesForLastCard(cardSet);
-            	// Reset the passcode array to a new, empty array.  This will be how
-            	// we pass the passcords back to the UI thread since we can't
-            	// manipulate the ToggleButtons directly.
-            	passcodes = new String[cardSet.getNumberOfRows()][cardSet.getNumberOfColumns()];
-        		// Loop through our rows and columns.  Note that we go rows first, then
-        		// columns:
+            	// Allocate a single flat block of characters to hold the whole
+            	// card.  This will be how we pass the passcodes back to the UI
+            	// thread since we can't manipulate the ToggleButtons directly.
+            	int card = cardSet.getLastCard();
+            	int columns = cardSet.getNumberOfColumns();
+            	int length = cardSet.getPasscodeLength();
+            	char[] chars = new char[totalPasscodes * length];
+            	// Have the engine fill in one row at a time.  It walks through the
+            	// row's consecutive counters in a single pass, which is a lot
+            	// cheaper than asking for each passcode separately.
     	    	for (int row  = 1; row <= cardSet.getNumberOfRows(); row++) {
-    	        	for (int col = 1; col <= cardSet.getNumberOfColumns(); col++) {
-    	        		// Generate the passcode using the PPP engine, feeding it the
-    	        		// last/current card, column number, and row number.  Note that
-    	        		// the engine already has all the other parameters.  Also note
-    	        		// that we need to tweak the array indices since the array
-    	        		// is zero-based.
-    	        		passcodes[row - 1][col - 1] =
-    	        			ppp.getPasscode(cardSet.getLastCard(), col, row);
-    	    			// Notify the handler that we're finished with this button and
-    	    			// we're ready to move to the next.  Note that we're only
-    	    			// bothering sending status for the passcode generation step,
-    	    			// as the toggle step below is much faster by comparison.
-    	    			counter++;
-    	    			msg = handler.obtainMessage();
-    	                b = new Bundle();
-    	                b.putInt("pccount", counter);
-    	                msg.setData(b);
-    	                handler.sendMessage(msg);
-    	        	}
+    	    		ppp.generateRows(card, row, 1, chars, counter * length);
+    	    		// Notify the handler that we're finished with this row and
+    	    		// we're ready to move to the next.  Note that we're only
+    	    		// bothering sending status for the passcode generation step,
+    	    		// as the toggle step below is much faster by comparison.
+    	    		counter += columns;
+    	    		msg = handler.obtainMessage();
+    	    		b = new Bundle();
+    	    		b.putInt("pccount", counter);
+    	    		msg.setData(b);
+    	    		// Hand the finished card over just before the final
+    	    		// message so the handler finds it waiting:
+    	    		if (counter >= totalPasscodes)
+    	    			passcodes = new PasscodeGrid(card, 1,
+    	    				cardSet.getNumberOfRows(), columns, length, chars);
+    	    		handler.sendMessage(msg);
     	    	}
     	    // If anything blows up, return a negative status message to the Handler
     	    // to let it know that something didn't work correctly.
@@ -935,7 +940,10 @@ public class CardViewActivity extends Activity implements
     	// be doing in the UI thread and it needs to be moved to a worker thread.
     	// So this method is relatively simple:  Launch the progress dialog, which in
     	// turn will launch the worker thread and start the passcode generation
-    	// process.
+    	// process.  Drop the old card's passcodes first, so that if we get torn
+    	// down before the new card is ready we won't save the old one as if it
+    	// were current.
+    	passcodes = null;
   		showDialog(DIALOG_PROGRESS);
     }
     
@@ -39,6 +39,8 @@
 */
 package com.gpfcomics.android.ppp;
 
+import com.gpfcomics.android.ppp.jppp.PasscodeGrid;
+
 /**
  * This class is used to pass state information from one instance of the Card View
  * Activity to another during a configuration change (such as rotating the screen).
@@ -60,19 +62,18 @@ public class CardViewState {
 	 *  array indices are zero-based while the row/column numbers are one-based. */
 	private boolean[][] toggles = null;
 	
-	/** This two-dimensional String array temporarily stores the generated passcode
-	 *  values for the card's various ToggleButtons.  The first dimension is
-	 *  for rows and the second for columns.  Note that array indices are zero-based
-	 *  while the row/column numbers are one-based. */
-	private String[][] passcodes = null;
+	/** This grid temporarily stores the generated passcode values for the card's
+	 *  various ToggleButtons.  It is addressed by the one-based row/column
+	 *  numbers directly. */
+	private PasscodeGrid passcodes = null;
 
 	/**
 	 * Constructor
 	 * @param cardSet The Cardset object to store
 	 * @param toggles The toggle or strike-out array
-	 * @param passcodes The passcode array
+	 * @param passcodes The passcode grid
 	 */
-	public CardViewState(Cardset cardSet, boolean[][] toggles, String[][] passcodes) {
+	public CardViewState(Cardset cardSet, boolean[][] toggles, PasscodeGrid passcodes) {
 		this.cardSet = cardSet;
 		this.toggles = toggles;
 		this.passcodes = passcodes;
@@ -92,10 +93,9 @@ public class CardViewState {
 	public boolean[][] getToggles() { return toggles; }
 	
 	/**
-	 * Get the stored passcode array
-	 * @return A two-dimensional array of Strings containing the passcodes for the
-	 * current card
+	 * Get the stored passcode grid
+	 * @return A PasscodeGrid containing the passcodes for the current card
 	 */
-	public String[][] getPasscodes() { return passcodes; }
+	public PasscodeGrid getPasscodes() { return passcodes; }
 	
 }
@@ -41,6 +41,11 @@ import java.util.Arrays;
 import java.util.HashSet;
 import java.util.regex.Pattern;
 
+import com.gpfcomics.android.ppp.jppp.Hex;
+import com.gpfcomics.android.ppp.jppp.PPPciphers;
+import com.gpfcomics.android.ppp.jppp.PPPconfig;
+import com.gpfcomics.android.ppp.jppp.PPPengine;
+
 /**
  * The Cardset class represents the defining parameters and current basic state of
  * a given set of cards within Perfect Paper Passwords.  This class contains all
@@ -99,15 +104,11 @@ public class Cardset {
 	public static final int DEFAULT_PASSCODE_LENGTH = 4;
 	/** The default alphabet.  This should match the "standard and conservative"
 	 *  64-character alphabet defined on the PPP demonstration page on the GRC site. */
-	public static final String DEFAULT_ALPHABET =
-		"!#%+23456789:=?@ABCDEFGHJKLMNPRSTUVWXYZabcdefghijkmnopqrstuvwxyz";
+	public static final String DEFAULT_ALPHABET = PPPconfig.DEFAULT_ALPHABET;
 	/** The "visually aggressive" 88-character alphabet defined on the PPP
 	 *  demonstration page on the GRC site. */
 	public static final String AGGRESSIVE_ALPHABET =
 		"!\"#$%&'()*+,-./23456789:;<=>?@ABCDEFGHJKLMNOPRSTUVWXYZ[\\]^_abcdefghijkmnopqrstuvwxyz{|}~";
-	/** A regular expression pattern used for testing sequence keys values to
-	 *  make sure they are valid.  Sequence keys must be 64-character hex strings. */
-	public static final String SEQUENCE_KEY_REGEX = "^[0-9a-fA-F]{64}$";
 	/** The maximum practical width in displayed characters that will fit into
 	 *  portrait orientation on a typical Android device screen.  Any product of the
 	 *  number of columns and the passcode length that is greater than this should
@@ -391,6 +392,31 @@ public class Cardset {
     	return calculateCardWdith(numColumns, passcodeLength) > MAX_PORTRAIT_WIDTH;
     }
     
+    /**
+     * Get an immutable snapshot of the parameters the PPP engine needs to generate
+     * passcodes for this card set (alphabet, columns, rows, and passcode length).
+     * Because the snapshot cannot change, engines built from it may be used from
+     * any thread, regardless of what happens to this Cardset afterward.
+     * @return The PPP engine configuration for this card set
+     */
+    public PPPconfig getEngineConfig() {
+    	return new PPPconfig(alphabet, numColumns, numRows, passcodeLength);
+    }
+    
+    /**
+     * Create a new PPP engine for this card set, using its current parameters and
+     * sequence key
+     * @return A new PPP engine ready to generate passcodes for this card set
+     * @throws IllegalArgumentException Thrown if the sequence key is invalid
+     */
+    public PPPengine createEngine() {
+    	// Use the bundled jppp cipher rather than letting the engine pick the
+    	// fastest backend.  Picking means timing every backend, which is far too
+    	// slow to do on the UI thread when a card is opened, and jppp encrypts a
+    	// card's worth of counters quickly enough on its own.
+    	return new PPPengine(getEngineConfig(), sequenceKey, PPPciphers.JPPP);
+    }
+    
     /* ####### Public Static Methods ####### */
     
     /**
@@ -537,7 +563,7 @@ public class Cardset {
      */
     public static boolean isValidSequenceKey(String seqKey) {
     	if (seqKey == null) return false;
-    	return Pattern.matches(SEQUENCE_KEY_REGEX, seqKey);
+    	return seqKey.length() == 64 && Hex.isHex(seqKey);
     }
     
     /**
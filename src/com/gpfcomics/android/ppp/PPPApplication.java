@@ -32,16 +32,20 @@ package com.gpfcomics.android.ppp;
 
 import java.security.MessageDigest;
 import java.security.SecureRandom;
-import java.util.regex.Pattern;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import javax.crypto.Cipher;
-import org.bouncycastle.crypto.BufferedBlockCipher;
-import org.bouncycastle.crypto.engines.RijndaelEngine;
 import org.bouncycastle.crypto.generators.PKCS5S2ParametersGenerator;
-import org.bouncycastle.crypto.modes.CBCBlockCipher;
-import org.bouncycastle.crypto.paddings.PaddedBufferedBlockCipher;
 import org.bouncycastle.crypto.params.ParametersWithIV;
 
+import com.gpfcomics.android.ppp.jppp.Hex;
+
 import android.app.Application;
 import android.content.Context;
 import android.content.SharedPreferences;
@@ -82,6 +86,14 @@ public class PPPApplication extends Application {
 	 *  for cryptogrphaic operations. */
 	private static final String PREF_SALT = "salt";
 	
+	/** This constant is used in the preferences file to identify how long, in
+	 *  milliseconds, the derived encryption key may go unused before we drop it
+	 *  from memory. */
+	private static final String PREF_KEY_IDLE_TIMEOUT = "key_idle_timeout";
+	
+	/** The default idle timeout for the derived encryption key, in milliseconds */
+	private static final long DEFAULT_KEY_IDLE_TIMEOUT = 5 * 60 * 1000L;
+	
 	/** The number of iterations used for cryptographic key generation, such
 	 *  as in creating an AlgorithmParameterSpec.  Ideally, this should be
 	 *  fairly high, but we'll use a modest value for performance. */
@@ -125,11 +137,43 @@ public class PPPApplication extends Application {
 	/** A convenience reference to our version "number" string */
 	private static String versionName = null;
 	
-	/** An cipher for the encryption and decryption of sequence keys */
-	private static BufferedBlockCipher cipher = null;
+	/** The ciphers for the encryption and decryption of sequence keys, one per
+	 *  thread, so that threads encrypting or decrypting at the same time don't
+	 *  scramble each other's work.  They are wiped whenever the derived key is
+	 *  dropped. */
+	private static final SequenceKeyCiphers ciphers = new SequenceKeyCiphers();
+	
+	/** The key and initialization vector (IV) used by our cipher, as they are
+	 *  being (or have been) derived in the background.  This is null if no
+	 *  password is set or if the key has been idle long enough to be dropped. */
+	private static Future<ParametersWithIV> keyFuture = null;
+	
+	/** Guards keyFuture and the idle timeout bookkeeping */
+	private static final Object keyLock = new Object();
+	
+	/** When the derived key was last asked for, from System.currentTimeMillis() */
+	private static long keyLastUsed = 0L;
+	
+	/** Whether a check to drop the idle key is already scheduled */
+	private static boolean keyExpiryPending = false;
 	
-	/** The initialization vector (IV) used by our cipher */
-	private static ParametersWithIV iv = null;
+	/** Bumped whenever the idle check is rescheduled, so a check scheduled
+	 *  under an older timeout knows to do nothing */
+	private static int keyExpiryGeneration = 0;
+	
+	/** How long the derived key may go unused before we drop it, in
+	 *  milliseconds.  Zero or less keeps it until the password changes. */
+	private static long keyIdleTimeout = DEFAULT_KEY_IDLE_TIMEOUT;
+	
+	/** A single background thread that derives the key and drops it when idle */
+	private static final ScheduledExecutorService keyExecutor =
+		Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "PPP key derivation");
+				t.setDaemon(true);
+				return t;
+			}
+		});
 	
 	private byte[] salt = null;
 	
@@ -214,9 +258,14 @@ public class PPPApplication extends Application {
 			} else {
 				salt = hexStringToBytes(saltString);
 			}
-			// If there's currently a password set, we need to set up our cipher
-			// for encryption and decryption:
-			if (promptForPassword()) createCipher();
+			// Get the idle timeout for the derived encryption key:
+			keyIdleTimeout = prefs.getLong(PREF_KEY_IDLE_TIMEOUT,
+					DEFAULT_KEY_IDLE_TIMEOUT);
+			// If there's currently a password set, start deriving the key for
+			// encryption and decryption.  That's slow on purpose, so we do it in
+			// the background rather than hold up the launch; whoever needs the
+			// key first will wait for it there.
+			startKeyDerivation();
 			// Apply PRNG fixes to broken versions of SecureRandom.
 			// Note that the only place we really need SecureRandom is for the
 			// generation of new sequence keys, so if the fixes cannot be applied,
@@ -288,6 +337,36 @@ public class PPPApplication extends Application {
 		} catch (Exception e) { return false; }
 	}
 	
+	/**
+	 * Get how long the derived encryption key may go unused before it is dropped
+	 * from memory and has to be derived again
+	 * @return The timeout in milliseconds.  Zero or less means the key is kept
+	 * until the password changes.
+	 */
+	public long getKeyIdleTimeout() { return keyIdleTimeout; }
+	
+	/**
+	 * Set how long the derived encryption key may go unused before it is dropped
+	 * from memory, and store the new value to the system preferences
+	 * @param millis The timeout in milliseconds.  Zero or less keeps the key
+	 * until the password changes.
+	 * @return True on success, false on failure
+	 */
+	public boolean setKeyIdleTimeout(long millis) {
+		try {
+			synchronized (keyLock) {
+				keyIdleTimeout = millis;
+				// Replace any check scheduled under the old timeout:
+				keyExpiryPending = false;
+				if (keyFuture != null) scheduleKeyExpiry();
+			}
+			SharedPreferences.Editor editor = prefs.edit();
+			editor.putLong(PREF_KEY_IDLE_TIMEOUT, millis);
+			editor.commit();
+			return true;
+		} catch (Exception e) { return false; }
+	}
+	
 	// ################### Public Static Methods #################################
 	
     /**
@@ -298,11 +377,9 @@ public class PPPApplication extends Application {
      */
     public static String bytesToHexString(byte[] bytes) {
     	if (bytes == null) return null;
-    	// A StringBuilder should be a lot more efficient that creating a
-    	// bunch of throw-away String objects:
-    	StringBuilder sb = new StringBuilder();
-        for (byte b : bytes) sb.append(String.format("%1$02X", b));
-        return sb.toString().toUpperCase();
+    	// Hex looks each digit up in a table, which is a lot cheaper than
+    	// running String.format() once per byte:
+    	return Hex.encode(bytes, true);
     }
     
     /**
@@ -315,47 +392,9 @@ public class PPPApplication extends Application {
      * hexadecimal string
      */
     public static byte[] hexStringToBytes(String hex) {
-    	// This is lifted mostly from the equivalent code out of
-    	// com.gpfcomics.android.ppp.jppp.PPPengine, although abstracted a bit
-    	// to allow for an arbitrary length hex string.  It could probably use
-    	// some efficiency tweaks as the substring creates a lot of throw-away
-    	// String objects, but it still ought to work.
-    	//
-    	// If the input string is null or its length is not a multiple of two,
-    	// it isn't valid:
-    	if (hex == null || hex.length() == 0 || hex.length() % 2 != 0)
-    		throw new IllegalArgumentException("Invalid hexadecimal string");
-    	// If the input string does not consist entirely of hex digits,
-    	// it isn't valid:
-    	if (!Pattern.matches("^[0-9a-fA-F]+$", hex))
-    		throw new IllegalArgumentException("Invalid hexadecimal string");
-    	// Now that that's out of the way, this should be pretty straight-forward.
-    	// The output size will be the length of the hex string divided by two,
-    	// since two hex digits are equivalent to a byte.  We'll put this size
-    	// into a variable so we won't have to recompute it.  Next, allocate the
-    	// output array at that size and create a temporary String to hold each
-    	// two-digit substring.
-    	int outputSize = hex.length() / 2;
-    	byte[] out = new byte[outputSize];
-    	String temp = null;
-    	// Step through the string, breaking it into two-digit chunks:
-    	for (int i = 0; i < outputSize; ++i) {
-		    temp = hex.substring(i * 2, i * 2 + 2);
-		    // Try to convert the string to binary by using the convenient
-		    // Integer.parseInt() method.  Since we're only dealing with
-		    // byte-sized chunks, we should then be able to cast that to a
-		    // byte with no problem.
-		    try {
-				int b = Integer.parseInt(temp, 16);
-				out[i] = (byte)b;
-			// This should only happen if we failed the tests above, but if
-			// the parse fails, complain:
-		    } catch (NumberFormatException e) {
-				throw new IllegalArgumentException("Invalid hexadecimal string");
-		    }
-    	}
-    	// Return the output array:
-	    return out;
+    	// Hex.decode() checks the length and every digit as it goes, so there's
+    	// no need for a regular expression pass or throw-away substrings:
+    	return Hex.decode(hex);
     }
     
     /**
@@ -383,8 +422,9 @@ public class PPPApplication extends Application {
 			SharedPreferences.Editor editor = prefs.edit();
 			editor.putString(PREF_PASSWORD, encryptPassword(password));
 			editor.commit();
-			// Create the cipher and IV objects to enable crypto:
-			createCipher();
+			// Start deriving the new key.  Any key derived from the old
+			// password is thrown away.
+			startKeyDerivation();
 			return true;
 		} catch (Exception e) {
 			return false;
@@ -402,9 +442,9 @@ public class PPPApplication extends Application {
 			SharedPreferences.Editor editor = prefs.edit();
 			editor.remove(PREF_PASSWORD);
 			editor.commit();
-			// Note that this will null out the cipher and IV, disabling all
+			// Note that this will null out the key and IV, disabling all
 			// cryptographic functions on sequence keys:
-			createCipher();
+			startKeyDerivation();
 			return true;
 		} catch (Exception e) { return false; }
 	}
@@ -492,100 +532,164 @@ public class PPPApplication extends Application {
     }
     
     /**
-     * Create the encryption cipher needed to securely store and retrieve encrypted
-     * sequence keys in the database.  Note that this cipher will only be created if
-     * the user's password is set; otherwise, the cipher will default to null.
+     * Start deriving the key and IV needed to securely store and retrieve encrypted
+     * sequence keys in the database, on our background thread.  Any key derived
+     * earlier is dropped.  Note that nothing will be derived unless the user's
+     * password is set; otherwise, the key will default to null.
      */
-    private void createCipher() {
-		// Asbestos underpants:
-		try
-		{
-			// The first thing we need to do is check to see if we have a password
-			// set.  There's no point doing anything if there's no password.
-			String password = prefs.getString(PREF_PASSWORD, null);
-			if (password != null) {
-				// OK, we've got a password.  Let's start by generating our salt.
-		        // To try and make this unique per device, we'll use the device's
-				// unique ID string.  To avoid the whole deprecation issue surrounding
-		        // Settings.System.ANDROID_ID vs. Settings.Secure.ANDROID_ID, we'll
-		        // wrap the call to this property inside the AndroidID class.  See
-		        // that class for more details.
-		        String uniqueID = null;
-		        try {
-		        	AndroidID id = AndroidID.newInstance(this);
-		        	uniqueID = id.getAndroidID();
-		        } catch (Exception e1) { }
-		        // Check the unique ID we just fetched.  It's possible that we didn't
-		        // get anything useful; it's up to manufacturers to set the Android ID
-		        // property, and not everybody does it.  If we didn't get anything,
-		        // we'll just make up a hard-coded random-ish string and use that as
-		        // our starting point.  Of course, if we're using this, our salt will
-		        // *NOT* be unique per device, but that's the best we can do.
-		    	if (uniqueID == null) uniqueID = SALT;
-		    	// If we *did* get a unique ID above, go ahead and concatenate our
-		    	// salt string on to the end of it as well.  That should give us
-		    	// a salt for our salt.
-		    	else uniqueID = uniqueID.concat(SALT);
-		        // Now get the unique ID string as raw bytes.  We'll use UTF-8 since
-		    	// everything we get should work with that encoding.
-		    	byte[] uniqueIDBytes = uniqueID.getBytes(ENCODING); 
-		    	// Generate our final salt value by combining the unique ID generated
-		    	// above with the random salt stored in the preferences file:
-		    	byte[] finalSalt = new byte[uniqueIDBytes.length + salt.length];
-		    	for (int i = 0; i < uniqueIDBytes.length; i++) {
-		    		finalSalt[i] = uniqueIDBytes[i];
-		    	}
-		    	for (int j = 0; j < salt.length; j++) {
-		    		finalSalt[uniqueIDBytes.length + j] = salt[j];
-		    	}
-		        // Ideally, we don't want to use the raw ID by itself; that's too
-		        // easy to guess.  Rather, let's hash this a few times to give us
-		        // something less predictable.
-				MessageDigest hasher = MessageDigest.getInstance(SALT_HASH);
-				for (int i = 0; i < KEY_ITERATION_COUNT; i++)
-					finalSalt = hasher.digest(finalSalt);
-				// Now, for good measure, let's obscure our password so we won't be
-				// using the value stored in the preferences directly.  We'll
-				// concatenate the unique ID generated above into the "encrypted"
-				// password, convert that to bytes, and hash it multiple times as
-				// well.
-				byte[] pwd = password.concat(uniqueID).getBytes(ENCODING);
-				for (int i = 0; i < KEY_ITERATION_COUNT; i++)
-					pwd = hasher.digest(pwd);
-				// From the BC JavaDoc: "Generator for PBE derived keys and IVs as
-				// defined by PKCS 5 V2.0 Scheme 2. This generator uses a SHA-1
-				// HMac as the calculation function."  This is apparently a standard.
-				PKCS5S2ParametersGenerator generator =
-					new PKCS5S2ParametersGenerator();
-				// Initialize the generator with our password and salt.  Note the
-				// iteration count value.  Examples I found around the Net set this
-				// as a hex value, but I'm not sure why advantage there is to that.
-				// I changed it to decimal for clarity.  Ideally, this should be a
-				// very large number, but experiments seem to show that setting this
-				// too high makes the program sluggish.  We'll stick to the same
-				// key iteration count we've been using.
-				generator.init(pwd, finalSalt, KEY_ITERATION_COUNT);
-				// Generate our parameters.  We want to do AES-256, so we'll set
-				// that as our key size.  That also implies a 128-bit IV.
-				iv = ((ParametersWithIV)generator.generateDerivedParameters(KEY_SIZE,
-						IV_SIZE));
-				// Create our AES (i.e. Rijndael) engine and create the actual
-				// cipher object from it.  We'll use CBC padding.
-				RijndaelEngine engine = new RijndaelEngine();
-				cipher = new PaddedBufferedBlockCipher(new CBCBlockCipher(engine));
-			// If the password was not set, we'll null out the cipher and IV to
-			// prevent encryption from taking place:
-			} else {
-				cipher = null;
-				iv = null;
-			}
-		}
-		// If anything blew up, null out the cipher and IV as well:
-		catch (Exception e)
-		{
-			cipher = null;
-			iv = null;
-		}
+    private void startKeyDerivation() {
+    	synchronized (keyLock) {
+    		// The first thing we need to do is check to see if we have a password
+    		// set.  There's no point doing anything if there's no password.
+    		final String password = prefs.getString(PREF_PASSWORD, null);
+    		if (password == null) {
+    			keyFuture = null;
+    			ciphers.wipe();
+    			return;
+    		}
+    		// Note that an older derivation still running will carry on, but
+    		// nobody will see its result.
+    		keyFuture = keyExecutor.submit(new Callable<ParametersWithIV>() {
+    			public ParametersWithIV call() throws Exception {
+    				return deriveKey(password);
+    			}
+    		});
+    		keyLastUsed = System.currentTimeMillis();
+    		scheduleKeyExpiry();
+    	}
+    }
+    
+    /**
+     * Get the key and IV for sequence key encryption, waiting for them to be
+     * derived if need be.  If they were dropped for being idle, they are derived
+     * again here.
+     * @return The key and IV, or null if no password is set or derivation failed
+     */
+    private ParametersWithIV getKeyParameters() {
+    	Future<ParametersWithIV> future;
+    	synchronized (keyLock) {
+    		if (keyFuture == null) startKeyDerivation();
+    		future = keyFuture;
+    		keyLastUsed = System.currentTimeMillis();
+    		if (future != null) scheduleKeyExpiry();
+    	}
+    	if (future == null) return null;
+    	try {
+    		return future.get();
+    	} catch (InterruptedException e) {
+    		Thread.currentThread().interrupt();
+    		return null;
+    	// If the derivation blew up, forget it so the next caller tries again:
+    	} catch (ExecutionException e) {
+    		synchronized (keyLock) {
+    			if (keyFuture == future) keyFuture = null;
+    		}
+    		return null;
+    	}
+    }
+    
+    /**
+     * Make sure a check is scheduled to drop the derived key once it has been
+     * idle for keyIdleTimeout.  Must be called holding keyLock.
+     */
+    private void scheduleKeyExpiry() {
+    	if (keyExpiryPending || keyIdleTimeout <= 0) return;
+    	keyExpiryPending = true;
+    	final int generation = ++keyExpiryGeneration;
+    	keyExecutor.schedule(new Runnable() {
+    		public void run() {
+    			synchronized (keyLock) {
+    				if (generation != keyExpiryGeneration) return;
+    				keyExpiryPending = false;
+    				if (keyFuture == null) return;
+    				// If the key was used since this check was scheduled, check
+    				// again later rather than drop it:
+    				if (keyIdleTimeout > 0 && System.currentTimeMillis() - keyLastUsed
+    						>= keyIdleTimeout) {
+    					keyFuture = null;
+    					ciphers.wipe();
+    				}
+    				else scheduleKeyExpiry();
+    			}
+    		}
+    	}, Math.max(keyIdleTimeout - (System.currentTimeMillis() - keyLastUsed), 0),
+    		TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Derive the key and IV needed to securely store and retrieve encrypted
+     * sequence keys in the database from the user's password.  This is slow on
+     * purpose, so it runs on our background thread.
+     * @param password The stored ("encrypted") password
+     * @return The derived key and IV
+     * @throws Exception If anything blows up
+     */
+    private ParametersWithIV deriveKey(String password) throws Exception {
+		// Let's start by generating our salt.
+        // To try and make this unique per device, we'll use the device's
+		// unique ID string.  To avoid the whole deprecation issue surrounding
+        // Settings.System.ANDROID_ID vs. Settings.Secure.ANDROID_ID, we'll
+        // wrap the call to this property inside the AndroidID class.  See
+        // that class for more details.
+        String uniqueID = null;
+        try {
+        	AndroidID id = AndroidID.newInstance(this);
+        	uniqueID = id.getAndroidID();
+        } catch (Exception e1) { }
+        // Check the unique ID we just fetched.  It's possible that we didn't
+        // get anything useful; it's up to manufacturers to set the Android ID
+        // property, and not everybody does it.  If we didn't get anything,
+        // we'll just make up a hard-coded random-ish string and use that as
+        // our starting point.  Of course, if we're using this, our salt will
+        // *NOT* be unique per device, but that's the best we can do.
+    	if (uniqueID == null) uniqueID = SALT;
+    	// If we *did* get a unique ID above, go ahead and concatenate our
+    	// salt string on to the end of it as well.  That should give us
+    	// a salt for our salt.
+    	else uniqueID = uniqueID.concat(SALT);
+        // Now get the unique ID string as raw bytes.  We'll use UTF-8 since
+    	// everything we get should work with that encoding.
+    	byte[] uniqueIDBytes = uniqueID.getBytes(ENCODING); 
+    	// Generate our final salt value by combining the unique ID generated
+    	// above with the random salt stored in the preferences file:
+    	byte[] finalSalt = new byte[uniqueIDBytes.length + salt.length];
+    	for (int i = 0; i < uniqueIDBytes.length; i++) {
+    		finalSalt[i] = uniqueIDBytes[i];
+    	}
+    	for (int j = 0; j < salt.length; j++) {
+    		finalSalt[uniqueIDBytes.length + j] = salt[j];
+    	}
+        // Ideally, we don't want to use the raw ID by itself; that's too
+        // easy to guess.  Rather, let's hash this a few times to give us
+        // something less predictable.
+		MessageDigest hasher = MessageDigest.getInstance(SALT_HASH);
+		for (int i = 0; i < KEY_ITERATION_COUNT; i++)
+			finalSalt = hasher.digest(finalSalt);
+		// Now, for good measure, let's obscure our password so we won't be
+		// using the value stored in the preferences directly.  We'll
+		// concatenate the unique ID generated above into the "encrypted"
+		// password, convert that to bytes, and hash it multiple times as
+		// well.
+		byte[] pwd = password.concat(uniqueID).getBytes(ENCODING);
+		for (int i = 0; i < KEY_ITERATION_COUNT; i++)
+			pwd = hasher.digest(pwd);
+		// From the BC JavaDoc: "Generator for PBE derived keys and IVs as
+		// defined by PKCS 5 V2.0 Scheme 2. This generator uses a SHA-1
+		// HMac as the calculation function."  This is apparently a standard.
+		PKCS5S2ParametersGenerator generator =
+			new PKCS5S2ParametersGenerator();
+		// Initialize the generator with our password and salt.  Note the
+		// iteration count value.  Examples I found around the Net set this
+		// as a hex value, but I'm not sure why advantage there is to that.
+		// I changed it to decimal for clarity.  Ideally, this should be a
+		// very large number, but experiments seem to show that setting this
+		// too high makes the program sluggish.  We'll stick to the same
+		// key iteration count we've been using.
+		generator.init(pwd, finalSalt, KEY_ITERATION_COUNT);
+		// Generate our parameters.  We want to do AES-256, so we'll set
+		// that as our key size.  That also implies a 128-bit IV.
+		return (ParametersWithIV)generator.generateDerivedParameters(KEY_SIZE,
+				IV_SIZE);
     }
 
     /**
@@ -609,20 +713,18 @@ public class PPPApplication extends Application {
      * remove extraneous nulls from the end.
      */
     private byte[] cryptSeqKey(byte[] original, int mode) {
-    	// If either the original data or the cipher object are null, return null:
-		if (original == null || original.length == 0 || cipher == null)
-			return null;
+    	// If the original data is null, return null:
+		if (original == null || original.length == 0) return null;
+		// Get the key and IV, waiting for them if they're still being derived.
+		// If there's no password, there's nothing to do:
+		ParametersWithIV iv = getKeyParameters();
+		if (iv == null) return null;
 		// Asbestos underpants:
 		try {
-			// Pick our mode, encryption or decryption:
-			if (mode == Cipher.ENCRYPT_MODE) cipher.init(true, iv);
-			else cipher.init(false, iv);
-			// Perform the crypto and return the result:
-			byte[] result = new byte[cipher.getOutputSize(original.length)];
-			int bytesSoFar = cipher.processBytes(original, 0,
-					original.length, result, 0);
-			cipher.doFinal(result, bytesSoFar);
-			return result;
+			// Pick our mode, encryption or decryption, and perform the crypto
+			// on this thread's cipher, so we're safe to run alongside other
+			// threads encrypting or decrypting at the same time:
+			return ciphers.crypt(original, iv, mode == Cipher.ENCRYPT_MODE);
 		// If anything blew up, return null:
 		} catch (Exception e) {
 			return null;
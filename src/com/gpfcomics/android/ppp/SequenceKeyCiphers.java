@@ -0,0 +1,123 @@
+/* SequenceKeyCiphers.java
+ *
+ * PROJECT:       Perfect Paper Passwords for Android
+ *
+ * The ciphers PPPApplication encrypts and decrypts sequence keys with, one per
+ * thread.  This holds no Android code, so it can be exercised on its own.
+ *
+ * This program is Copyright 2013, Jeffrey T. Darlington.
+ * E-mail:  android_apps@gpf-comics.com
+ * Web:     https://code.google.com/p/android-ppp/
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this
+ * program.  If not, see http://www.gnu.org/licenses/.
+*/
+package com.gpfcomics.android.ppp;
+
+import java.util.WeakHashMap;
+
+import org.bouncycastle.crypto.BufferedBlockCipher;
+import org.bouncycastle.crypto.engines.AESFastEngine;
+import org.bouncycastle.crypto.modes.CBCBlockCipher;
+import org.bouncycastle.crypto.paddings.PaddedBufferedBlockCipher;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.crypto.params.ParametersWithIV;
+
+/**
+ * A set of AES/CBC ciphers for sequence key encryption, one per thread.  A cipher
+ * holds its mode and chaining state between init() and doFinal(), so two threads
+ * sharing one would scramble each other's work.  Each call re-initializes its
+ * thread's cipher from the key and IV passed in, holding the cipher's lock while
+ * it works.  When the key is dropped, wipe() sets every thread's cipher to a
+ * blank key so none of them still holds it.
+ * @version 1.0
+ * @since 1.0
+ */
+class SequenceKeyCiphers {
+
+	/** An all-zero key and IV that the ciphers are set to when wiped, so they
+	 *  no longer hold the derived key's schedule or chaining state */
+	private static final ParametersWithIV BLANK_KEY =
+		new ParametersWithIV(new KeyParameter(new byte[32]), new byte[16]);
+
+	/** Every thread's cipher, so that they can all be wiped.  Weak keys let the
+	 *  ciphers of threads that have ended be collected. */
+	private final WeakHashMap<BufferedBlockCipher, Boolean> allCiphers =
+		new WeakHashMap<BufferedBlockCipher, Boolean>();
+
+	/** This thread's cipher */
+	private final ThreadLocal<BufferedBlockCipher> ciphers =
+		new ThreadLocal<BufferedBlockCipher>() {
+			@Override
+			protected BufferedBlockCipher initialValue() {
+				// Create our AES engine and create the actual cipher object
+				// from it.  We'll use CBC padding.  AESFastEngine does the
+				// rounds through lookup tables, but it's the same AES-256 (i.e.
+				// Rijndael with 128-bit blocks) as the RijndaelEngine we used
+				// to use, so sequence keys encrypted with that still decrypt
+				// just fine.
+				BufferedBlockCipher cipher = new PaddedBufferedBlockCipher(
+						new CBCBlockCipher(new AESFastEngine()));
+				synchronized (allCiphers) {
+					allCiphers.put(cipher, Boolean.TRUE);
+				}
+				return cipher;
+			}
+		};
+
+	/**
+	 * Encrypt or decrypt with this thread's cipher.
+	 * @param input The data to encrypt or decrypt
+	 * @param key The key and IV to use
+	 * @param encrypt True to encrypt, false to decrypt
+	 * @return The output, which for decryption may end in nulls where the padding
+	 * was removed
+	 * @throws Exception If the cipher blows up, such as on bad padding
+	 */
+	byte[] crypt(byte[] input, ParametersWithIV key, boolean encrypt) throws Exception {
+		BufferedBlockCipher cipher = ciphers.get();
+		// Hold the cipher so wipe() can't blank it halfway through:
+		synchronized (cipher) {
+			cipher.init(encrypt, key);
+			byte[] result = new byte[cipher.getOutputSize(input.length)];
+			int bytesSoFar = cipher.processBytes(input, 0, input.length, result, 0);
+			cipher.doFinal(result, bytesSoFar);
+			return result;
+		}
+	}
+
+	/**
+	 * Set every thread's cipher to a blank key.  Each cipher is taken under its
+	 * own lock, so one in use is wiped as soon as its thread is done with it.
+	 */
+	void wipe() {
+		BufferedBlockCipher[] wipe;
+		synchronized (allCiphers) {
+			wipe = allCiphers.keySet().toArray(
+					new BufferedBlockCipher[allCiphers.size()]);
+		}
+		for (BufferedBlockCipher cipher : wipe) {
+			if (cipher == null) continue;
+			synchronized (cipher) {
+				cipher.init(true, BLANK_KEY);
+			}
+		}
+	}
+
+	/**
+	 * How many threads' ciphers are still around to be wiped
+	 */
+	int size() {
+		synchronized (allCiphers) {
+			return allCiphers.size();
+		}
+	}
+}
@@ -25,12 +25,20 @@
 package com.gpfcomics.android.ppp;
 
 import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import com.gpfcomics.android.ppp.jppp.PPPengine;
 
 import android.app.Activity;
+import android.app.AlertDialog;
+import android.app.Dialog;
+import android.app.ProgressDialog;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Message;
 import android.view.KeyEvent;
 import android.view.Menu;
 import android.view.MenuItem;
@@ -53,6 +61,20 @@ public class SinglePasscodeActivity extends Activity {
 	/** This constant identifies the Help option menu */
 	private static final int OPTMENU_HELP = Menu.FIRST;
 
+	/** This constant identifies the Find Passcode option menu */
+	private static final int OPTMENU_FIND = Menu.FIRST + 1;
+
+	/** This constant identifies the Find Passcode prompt dialog */
+	private static final int DIALOG_FIND = 1234570;
+
+	/** This constant identifies the progress dialog shown while searching */
+	private static final int DIALOG_SEARCHING = 1234571;
+
+	/** How many cards past each card set's last used card to search when
+	 *  finding a passcode.  Passcodes are rarely used much further ahead than
+	 *  this, and every extra card adds to the time the search takes. */
+	private static final int SEARCH_EXTRA_CARDS = 10;
+
 	/** A convenience constant pointing to the "on" or "struck through" Drawable
 	 *  resource for our card's ToggleButtons. */
 	private static final int toggleBgOn = R.drawable.strikethru_on;
@@ -95,6 +117,9 @@ public class SinglePasscodeActivity extends Activity {
 	
 	/** The passcode ToggleButton */
 	private ToggleButton tbPasscode = null;
+
+	/** The passcode the user asked us to find */
+	private String searchPasscode = null;
 	
 	
     @Override
@@ -139,11 +164,7 @@ public class SinglePasscodeActivity extends Activity {
 	        }
 	        
 	        // Built the PPP engine from the card set data:
-	        PPPengine.setAlphabet(cardSet.getAlphabet());
-	        PPPengine.setCardColumns(cardSet.getNumberOfColumns());
-	        PPPengine.setCardRows(cardSet.getNumberOfRows());
-	        PPPengine.setPasscodeLength(cardSet.getPasscodeLength());
-	    	ppp = new PPPengine(cardSet.getSequenceKey());
+	    	ppp = cardSet.createEngine();
 
 	    	// Set the card set title as well as the text box containing
 	    	// the current/last card number:
@@ -348,6 +369,8 @@ public class SinglePasscodeActivity extends Activity {
     
     public boolean onCreateOptionsMenu(Menu menu) {
     	// Create the option menu:
+    	menu.add(0, OPTMENU_FIND, Menu.NONE,
+				R.string.optmenu_find).setIcon(android.R.drawable.ic_menu_search);
     	menu.add(0, OPTMENU_HELP, Menu.NONE,
 				R.string.optmenu_help).setIcon(android.R.drawable.ic_menu_help);
     	return true;
@@ -361,9 +384,141 @@ public class SinglePasscodeActivity extends Activity {
     			i.putExtra("helptext", R.string.help_text_singepasscode_view);
 	    		startActivity(i);
 	    		return true;
+	    	// Rather than make the user page through cards looking for a
+	    	// passcode, prompt for it and go find it:
+	    	case OPTMENU_FIND:
+	    		showDialog(DIALOG_FIND);
+	    		return true;
     	}
     	return false;
     }
+
+    @Override
+    protected Dialog onCreateDialog(int id)
+    {
+    	final Activity caller = this;
+    	Dialog dialog = null;
+    	switch (id) {
+    		// The Find Passcode dialog is simple enough for AlertDialog.Builder:
+    		// a single text box to type the passcode into.
+	    	case DIALOG_FIND:
+	    		final EditText txtPasscode = new EditText(this);
+	    		txtPasscode.setSingleLine(true);
+	    		AlertDialog.Builder adb = new AlertDialog.Builder(this);
+	    		adb.setTitle(R.string.dialog_find_passcode_title);
+	    		adb.setMessage(R.string.dialog_find_passcode_prompt);
+	    		adb.setView(txtPasscode);
+	    		adb.setCancelable(true);
+	    		adb.setPositiveButton(R.string.dialog_find_passcode_find_btn,
+	    				new DialogInterface.OnClickListener() {
+					public void onClick(DialogInterface dialog, int which) {
+						searchPasscode = txtPasscode.getText().toString().trim();
+						caller.removeDialog(DIALOG_FIND);
+						if (searchPasscode.length() > 0)
+							showDialog(DIALOG_SEARCHING);
+					}
+	    		});
+	    		adb.setNegativeButton(android.R.string.cancel,
+	    				new DialogInterface.OnClickListener() {
+					public void onClick(DialogInterface dialog, int which) {
+						dialog.cancel();
+					}
+	    		});
+	    		adb.setOnCancelListener(new DialogInterface.OnCancelListener() {
+					public void onCancel(DialogInterface dialog) {
+						caller.removeDialog(DIALOG_FIND);
+					}
+				});
+	    		dialog = (Dialog)adb.create();
+	    		break;
+	    	// Searching every card set is too much work for the UI thread, so
+	    	// show a spinner while the LocatorThread does it:
+	    	case DIALOG_SEARCHING:
+	    		ProgressDialog progressDialog = new ProgressDialog(this);
+	    		progressDialog.setOwnerActivity(this);
+	    		progressDialog.setIndeterminate(true);
+	    		progressDialog.setCancelable(false);
+	    		progressDialog.setMessage(getResources().getString(R.string.dialog_find_passcode_searching));
+	    		new LocatorThread(handler, searchPasscode).start();
+	    		dialog = progressDialog;
+	    		break;
+    	}
+    	return dialog;
+    }
+
+    /** This Handler receives the result of the LocatorThread's search and
+     *  either jumps to the passcode or says where it was found. */
+    final Handler handler = new Handler() {
+    	public void handleMessage(Message msg) {
+    		removeDialog(DIALOG_SEARCHING);
+    		try {
+	    		long[] found = msg.getData().getLongArray("found");
+	    		// Not in any card set:
+	    		if (found == null) {
+	    			Toast.makeText(getBaseContext(), R.string.dialog_find_passcode_not_found,
+	    					Toast.LENGTH_LONG).show();
+	    		// It's in this card set, so take the user straight to it:
+	    		} else if (found[0] == cardSet.getCardsetId()) {
+	    			cardSet.setLastCard((int)found[1]);
+	    			DBHelper.saveCardset(cardSet);
+	    			txtCardNumber.setText(String.valueOf(found[1]));
+	    			spinColumn.setSelection((int)found[2] - 1);
+	    			spinRow.setSelection((int)found[3] - 1);
+	    			fetchPasscode();
+	    		// It's in some other card set; tell the user which one and where:
+	    		} else {
+	    			Cardset other = DBHelper.getCardset(found[0]);
+	    			String where = (other == null ? "?" : other.getName()) + ", " +
+	    				getResources().getString(R.string.single_pc_cardnum_label) + " " +
+	    				found[1] + ", " + found[3] + letters[(int)found[2] - 1];
+	    			Toast.makeText(getBaseContext(),
+	    					getResources().getString(R.string.dialog_find_passcode_other_cardset).replace(getResources().getString(R.string.meta_replace_token), where),
+	    					Toast.LENGTH_LONG).show();
+	    		}
+    		} catch (Exception e) {
+    			Toast.makeText(getBaseContext(), "ERROR: " + e.toString(),
+                		Toast.LENGTH_LONG).show();
+    		}
+    	}
+    };
+
+    /**
+     * This private Thread subclass searches every card set for a passcode, from
+     * its first card through a few cards past its last used one.  The scan is
+     * split across one worker per processor, which is why it isn't done on the
+     * UI thread.
+     */
+    private class LocatorThread extends Thread {
+    	/** The Handler to send the result to */
+    	Handler handler = null;
+    	/** The passcode to look for */
+    	String passcode = null;
+
+    	LocatorThread(Handler handler, String passcode) {
+    		this.handler = handler;
+    		this.passcode = passcode;
+    	}
+
+    	@Override
+    	public void run() {
+    		int parallelism = Runtime.getRuntime().availableProcessors();
+    		ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+    		long[] found = null;
+    		try {
+    			found = DBHelper.locatePasscode(passcode, SEARCH_EXTRA_CARDS,
+    					executor, parallelism);
+    		} finally {
+    			executor.shutdownNow();
+    			// Always report back, even if the search blew up, so the
+    			// progress dialog goes away:
+    			Message msg = handler.obtainMessage();
+    			Bundle b = new Bundle();
+    			b.putLongArray("found", found);
+    			msg.setData(b);
+    			handler.sendMessage(msg);
+    		}
+    	}
+    }
     
     /**
      * Given the current state of the UI elements, generate the passcode for
@@ -0,0 +1,154 @@
+/**
+ * @(#)Hex.java
+ *
+ * Hexadecimal encoding and decoding by table lookup, for sequence keys, salts
+ * and encrypted sequence keys.  Everything works on arrays, CharSequences or
+ * buffers in place, so a caller that already has a char[] or a ByteBuffer
+ * doesn't have to go through a String.  Decoding accepts upper and lower case
+ * digits; encoding writes whichever case is asked for.
+ */
+
+package com.gpfcomics.android.ppp.jppp;
+import java.nio.ByteBuffer;
+public final class Hex {
+
+	private static final char[] UPPER = "0123456789ABCDEF".toCharArray();
+	private static final char[] LOWER = "0123456789abcdef".toCharArray();
+
+	/* Value of each ASCII character as a hex digit, or -1 */
+	private static final byte[] VALUES = new byte[128];
+	static {
+		for ( int i = 0; i < VALUES.length; ++i ) {
+			VALUES[i] = -1;
+		}
+		for ( int i = 0; i < 16; ++i ) {
+			VALUES[UPPER[i]] = (byte)i;
+			VALUES[LOWER[i]] = (byte)i;
+		}
+	}
+
+	private Hex() {
+	}
+
+	/**
+	 * Encode bytes as a string of hex digits
+	 * @param upperCase true for A-F, false for a-f
+	 */
+	public static String encode(byte[] bytes, boolean upperCase) {
+		char[] out = new char[bytes.length * 2];
+		encode( bytes, 0, bytes.length, out, 0, upperCase );
+		return new String( out );
+	}
+
+	/**
+	 * Encode len bytes from in[inOff] on as 2 * len hex digits from
+	 * out[outOff] on
+	 * @param upperCase true for A-F, false for a-f
+	 */
+	public static void encode(byte[] in, int inOff, int len, char[] out, int outOff, boolean upperCase) {
+		char[] digits = upperCase ? UPPER : LOWER;
+		for ( int i = 0; i < len; ++i ) {
+			int b = in[inOff + i];
+			out[outOff++] = digits[( b >> 4 ) & 0xF];
+			out[outOff++] = digits[b & 0xF];
+		}
+	}
+
+	/**
+	 * Encode the bytes remaining in a buffer as hex digits from out[outOff]
+	 * on, leaving the buffer's position at its limit
+	 * @param upperCase true for A-F, false for a-f
+	 * @return the number of digits written
+	 */
+	public static int encode(ByteBuffer in, char[] out, int outOff, boolean upperCase) {
+		char[] digits = upperCase ? UPPER : LOWER;
+		int len = in.remaining();
+		for ( int i = 0; i < len; ++i ) {
+			int b = in.get();
+			out[outOff++] = digits[( b >> 4 ) & 0xF];
+			out[outOff++] = digits[b & 0xF];
+		}
+		return len * 2;
+	}
+
+	/**
+	 * Decode a string of hex digits
+	 * @throws IllegalArgumentException if the string is empty, of odd length
+	 * or holds anything other than hex digits
+	 */
+	public static byte[] decode(CharSequence hex) {
+		if ( hex == null || hex.length() == 0 || hex.length() % 2 != 0 ) {
+			throw new IllegalArgumentException("Invalid hexadecimal string");
+		}
+		byte[] out = new byte[hex.length() / 2];
+		decode( hex, 0, hex.length(), out, 0 );
+		return out;
+	}
+
+	/**
+	 * Decode len hex digits from in[inOff] on into len / 2 bytes from
+	 * out[outOff] on
+	 * @throws IllegalArgumentException if len is odd or the digits hold
+	 * anything other than hex digits
+	 */
+	public static void decode(CharSequence in, int inOff, int len, byte[] out, int outOff) {
+		if ( len % 2 != 0 ) {
+			throw new IllegalArgumentException("Invalid hexadecimal string");
+		}
+		for ( int end = inOff + len; inOff < end; inOff += 2 ) {
+			out[outOff++] = pair( in.charAt( inOff ), in.charAt( inOff + 1 ) );
+		}
+	}
+
+	/**
+	 * @see #decode(CharSequence, int, int, byte[], int)
+	 */
+	public static void decode(char[] in, int inOff, int len, byte[] out, int outOff) {
+		if ( len % 2 != 0 ) {
+			throw new IllegalArgumentException("Invalid hexadecimal string");
+		}
+		for ( int end = inOff + len; inOff < end; inOff += 2 ) {
+			out[outOff++] = pair( in[inOff], in[inOff + 1] );
+		}
+	}
+
+	/**
+	 * Decode len hex digits from in[inOff] on, putting the bytes into a
+	 * buffer from its current position
+	 * @throws IllegalArgumentException if len is odd or the digits hold
+	 * anything other than hex digits
+	 */
+	public static void decode(CharSequence in, int inOff, int len, ByteBuffer out) {
+		if ( len % 2 != 0 ) {
+			throw new IllegalArgumentException("Invalid hexadecimal string");
+		}
+		for ( int end = inOff + len; inOff < end; inOff += 2 ) {
+			out.put( pair( in.charAt( inOff ), in.charAt( inOff + 1 ) ) );
+		}
+	}
+
+	/**
+	 * Whether a string is made up only of hex digits, in either case
+	 */
+	public static boolean isHex(CharSequence s) {
+		for ( int i = 0; i < s.length(); ++i ) {
+			if ( value( s.charAt( i ) ) < 0 ) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static byte pair(char hi, char lo) {
+		int h = value( hi );
+		int l = value( lo );
+		if ( ( h | l ) < 0 ) {
+			throw new IllegalArgumentException("Invalid hexadecimal string");
+		}
+		return (byte)( ( h << 4 ) | l );
+	}
+
+	private static int value(char c) {
+		return c < 128 ? VALUES[c] : -1;
+	}
+}
@@ -0,0 +1,33 @@
+/**
+ * @(#)PPPcipher.java
+ *
+ * The block cipher side of passcode generation: AES-256 in ECB mode over PPP
+ * counters.  PPPciphers provides the available implementations and picks one.
+ * Implementations must be safe to use from several threads at once.
+ */
+
+package com.gpfcomics.android.ppp.jppp;
+public interface PPPcipher {
+
+	/**
+	 * The backend's name, as accepted by PPPciphers.create()
+	 */
+	public String getName();
+
+	/**
+	 * Encrypt a run of consecutive counters.  Each counter becomes one 16-byte
+	 * plaintext block (the counter in little-endian order, zero padded), and
+	 * the ciphertext blocks are written one after another.
+	 * @param firstCounter counter of the first block
+	 * @param count number of blocks to encrypt
+	 * @param out destination for count * 16 bytes of ciphertext
+	 * @param outOff offset in out of the first ciphertext block
+	 */
+	public void encryptCounters(long firstCounter, int count, byte[] out, int outOff);
+
+	/**
+	 * Wipe whatever key material the backend holds, as far as the backend
+	 * allows.  The cipher must not be used afterwards.
+	 */
+	public void destroy();
+}
@@ -0,0 +1,338 @@
+/**
+ * @(#)PPPciphers.java
+ *
+ * Creates PPPcipher backends.  Three are available:
+ *
+ *   jppp          - the bundled jppp.Rijndael implementation, which encrypts
+ *                   runs of counters four blocks at a time
+ *   bouncycastle  - the bundled org.bouncycastle RijndaelEngine
+ *   jca           - AES/ECB/NoPadding from javax.crypto, which may use the
+ *                   processor's AES instructions and encrypts a whole run of
+ *                   counters in a single doFinal() call
+ *
+ * Every backend has to reproduce the PPP3 test vectors below before it is
+ * used.  Asking for AUTO picks the fastest backend that does, measured once
+ * per process.
+ */
+
+package com.gpfcomics.android.ppp.jppp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.bouncycastle.crypto.BlockCipher;
+import org.bouncycastle.crypto.engines.RijndaelEngine;
+import org.bouncycastle.crypto.params.KeyParameter;
+public final class PPPciphers {
+
+	public static final String AUTO = "auto";
+	public static final String JPPP = "jppp";
+	public static final String BOUNCYCASTLE = "bouncycastle";
+	public static final String JCA = "jca";
+
+	private static final String[] BACKENDS = { JPPP, BOUNCYCASTLE, JCA };
+
+	/* PPP3 test vectors: the sequence key for the passphrase "zombie" and the
+	 * ciphertext blocks for a few of its counters. */
+	private static final String TEST_KEY =
+		"49460b7bbbd3aad3f2cba09864f5e8b01a220ea8c077e9fa996de367e7984af0";
+	private static final long[] TEST_COUNTERS = { 0L, 1L, 69L, 0x0123456789abcdefL };
+	private static final String[] TEST_BLOCKS = {
+		"46dd04c528b5506a05e84e2a27e06edc",
+		"2b193b3435ca3e78fe425a713b576a66",
+		"8dc522be7c144765d593c3da06cd3315",
+		"fa3566afb73a3afbe9df32e230e7898f"
+	};
+
+	/* How many counters AUTO times each backend over */
+	private static final int TIMING_BLOCKS = 4096;
+
+	private static final Map<String, Boolean> verified = new HashMap<String, Boolean>();
+	private static String fastest = null;
+
+	private PPPciphers() {
+	}
+
+	/**
+	 * Create a cipher backend for a sequence key.
+	 * @param backend backend name, or AUTO (or null) to pick the fastest
+	 * @param key 32-byte AES-256 key
+	 * @throws IllegalArgumentException if the backend is unknown, unavailable
+	 * on this platform or fails the PPP3 test vectors
+	 */
+	public static PPPcipher create(String backend, byte[] key) {
+		if ( backend == null || AUTO.equals( backend ) ) {
+			backend = fastestBackend();
+		} else if ( !isVerified( backend ) ) {
+			throw new IllegalArgumentException("Cipher backend " + backend + " is not available");
+		}
+		return newCipher( backend, key );
+	}
+
+	/**
+	 * Whether a backend is available here and reproduces the PPP3 test vectors
+	 */
+	public static synchronized boolean isVerified(String backend) {
+		Boolean result = verified.get( backend );
+		if ( result == null ) {
+			result = Boolean.valueOf( selfTest( backend ) );
+			verified.put( backend, result );
+		}
+		return result.booleanValue();
+	}
+
+	/**
+	 * The verified backend that encrypts counters the fastest on this platform
+	 */
+	public static synchronized String fastestBackend() {
+		if ( fastest == null ) {
+			byte[] key = Hex.decode( TEST_KEY );
+			byte[] out = new byte[TIMING_BLOCKS * 16];
+			long best = Long.MAX_VALUE;
+			for ( int i = 0; i < BACKENDS.length; ++i ) {
+				if ( !isVerified( BACKENDS[i] ) ) {
+					continue;
+				}
+				PPPcipher cipher = newCipher( BACKENDS[i], key );
+				long time = Long.MAX_VALUE;
+				// Take the best of a few runs to smooth out JIT warm-up:
+				for ( int run = 0; run < 3; ++run ) {
+					long start = System.nanoTime();
+					cipher.encryptCounters( 0L, TIMING_BLOCKS, out, 0 );
+					time = Math.min( time, System.nanoTime() - start );
+				}
+				if ( time < best ) {
+					best = time;
+					fastest = BACKENDS[i];
+				}
+			}
+			if ( fastest == null ) {
+				throw new IllegalStateException("No cipher backend passes the PPP3 test vectors");
+			}
+		}
+		return fastest;
+	}
+
+	/**
+	 * Write a PPP counter block: the counter in little-endian order followed by
+	 * eight zero bytes.
+	 */
+	static void writeCounter(long counter, byte[] out, int outOff) {
+		for ( int i = 0; i < 8; ++i ) {
+			out[outOff + i] = (byte)counter;
+			counter >>>= 8;
+		}
+		for ( int i = 8; i < 16; ++i ) {
+			out[outOff + i] = 0;
+		}
+	}
+
+	private static boolean selfTest(String backend) {
+		try {
+			PPPcipher cipher = newCipher( backend, Hex.decode( TEST_KEY ) );
+			byte[] out = new byte[16 * 2];
+			// Check a run of counters as well as single blocks so that both
+			// the bulk and the one-at-a-time paths are covered:
+			cipher.encryptCounters( TEST_COUNTERS[0], 2, out, 0 );
+			if ( !matches( out, 0, TEST_BLOCKS[0] ) || !matches( out, 16, TEST_BLOCKS[1] ) ) {
+				return false;
+			}
+			for ( int i = 2; i < TEST_COUNTERS.length; ++i ) {
+				cipher.encryptCounters( TEST_COUNTERS[i], 1, out, 16 );
+				if ( !matches( out, 16, TEST_BLOCKS[i] ) ) {
+					return false;
+				}
+			}
+			return true;
+		} catch ( Exception e ) {
+			// Unknown backend, or the platform can't provide it (no AES
+			// provider, 256-bit keys restricted, and so on):
+			return false;
+		}
+	}
+
+	private static boolean matches(byte[] block, int offset, String expected) {
+		byte[] want = Hex.decode( expected );
+		for ( int i = 0; i < 16; ++i ) {
+			if ( block[offset + i] != want[i] ) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static PPPcipher newCipher(String backend, byte[] key) {
+		if ( JPPP.equals( backend ) ) {
+			return new JpppCipher( key );
+		} else if ( BOUNCYCASTLE.equals( backend ) ) {
+			return new BouncyCastleCipher( key );
+		} else if ( JCA.equals( backend ) ) {
+			return new JcaCipher( key );
+		}
+		throw new IllegalArgumentException("Unknown cipher backend " + backend);
+	}
+
+	/**
+	 * jppp.Rijndael only reads its key schedule once it is built, so a single
+	 * instance can be shared by every thread.
+	 */
+	private static final class JpppCipher implements PPPcipher {
+		private final Rijndael rijndael = new Rijndael();
+
+		JpppCipher(byte[] key) {
+			rijndael.makeKey( key, 256, Rijndael.DIR_ENCRYPT );
+		}
+
+		public String getName() {
+			return JPPP;
+		}
+
+		public void encryptCounters(long firstCounter, int count, byte[] out, int outOff) {
+			rijndael.encryptBlocks( firstCounter, count, out, outOff );
+		}
+
+		public void destroy() {
+			rijndael.clearKey();
+		}
+	}
+
+	/**
+	 * RijndaelEngine keeps its working state in fields, so each thread gets
+	 * its own engine.  Every engine handed out is remembered so destroy() can
+	 * reach the ones belonging to other threads.
+	 */
+	private static final class BouncyCastleCipher implements PPPcipher {
+		private final byte[] copy;
+		private final List<BlockCipher> created = new ArrayList<BlockCipher>();
+		private final ThreadLocal<BlockCipher> engines;
+
+		BouncyCastleCipher(byte[] key) {
+			copy = key.clone();
+			engines = new ThreadLocal<BlockCipher>() {
+				protected BlockCipher initialValue() {
+					BlockCipher engine = new RijndaelEngine( 128 );
+					engine.init( true, new KeyParameter( copy ) );
+					synchronized ( created ) {
+						created.add( engine );
+					}
+					return engine;
+				}
+			};
+			engines.get();
+		}
+
+		public String getName() {
+			return BOUNCYCASTLE;
+		}
+
+		public void encryptCounters(long firstCounter, int count, byte[] out, int outOff) {
+			BlockCipher engine = engines.get();
+			for ( int i = 0; i < count; ++i, outOff += 16 ) {
+				writeCounter( firstCounter + i, out, outOff );
+				engine.processBlock( out, outOff, out, outOff );
+			}
+		}
+
+		public void destroy() {
+			// RijndaelEngine has no way to wipe its schedule, but re-keying it
+			// with zeros replaces the real one:
+			Arrays.fill( copy, (byte)0 );
+			synchronized ( created ) {
+				for ( BlockCipher engine : created ) {
+					engine.init( true, new KeyParameter( copy ) );
+				}
+				created.clear();
+			}
+		}
+	}
+
+	/**
+	 * javax.crypto.Cipher is not thread-safe either, so each thread gets its
+	 * own, along with a buffer to lay the counters out in.  A whole run is
+	 * encrypted from that buffer into the output with one doFinal() call.
+	 * Encrypting in place would make the provider copy the overlapping input
+	 * on every call; a separate buffer, grown only when a longer run comes
+	 * along, keeps steady-state generation allocation-free.  The provider
+	 * keeps its own copy of the key schedule, so like BouncyCastleCipher
+	 * every worker handed out is remembered and destroy() re-keys each one
+	 * with zeros.
+	 */
+	private static final class JcaCipher implements PPPcipher {
+		private final byte[] copy;
+		private final List<Worker> created = new ArrayList<Worker>();
+		private final ThreadLocal<Worker> workers;
+
+		JcaCipher(byte[] key) {
+			copy = key.clone();
+			workers = new ThreadLocal<Worker>() {
+				protected Worker initialValue() {
+					try {
+						Cipher cipher = Cipher.getInstance( "AES/ECB/NoPadding" );
+						cipher.init( Cipher.ENCRYPT_MODE, new SecretKeySpec( copy, "AES" ) );
+						Worker worker = new Worker( cipher );
+						synchronized ( created ) {
+							created.add( worker );
+						}
+						return worker;
+					} catch ( Exception e ) {
+						throw new IllegalStateException("AES is not available: " + e);
+					}
+				}
+			};
+			workers.get();
+		}
+
+		public String getName() {
+			return JCA;
+		}
+
+		public void encryptCounters(long firstCounter, int count, byte[] out, int outOff) {
+			Worker worker = workers.get();
+			int length = count * 16;
+			if ( worker.in.length < length ) {
+				worker.in = new byte[length];
+			}
+			byte[] in = worker.in;
+			for ( int i = 0; i < count; ++i ) {
+				writeCounter( firstCounter + i, in, i * 16 );
+			}
+			try {
+				worker.cipher.doFinal( in, 0, length, out, outOff );
+			} catch ( Exception e ) {
+				throw new IllegalStateException("AES encryption failed: " + e);
+			}
+		}
+
+		public void destroy() {
+			Arrays.fill( copy, (byte)0 );
+			SecretKeySpec blank = new SecretKeySpec( copy, "AES" );
+			synchronized ( created ) {
+				for ( Worker worker : created ) {
+					try {
+						worker.cipher.init( Cipher.ENCRYPT_MODE, blank );
+					} catch ( Exception e ) {
+						// The same provider took a key of this length before
+						throw new IllegalStateException("AES re-key failed: " + e);
+					}
+				}
+				created.clear();
+			}
+			workers.remove();
+		}
+
+		private static final class Worker {
+			final Cipher cipher;
+			/* Counter blocks waiting to be encrypted */
+			byte[] in = new byte[16 * 4];
+
+			Worker(Cipher cipher) {
+				this.cipher = cipher;
+			}
+		}
+	}
+}
@@ -0,0 +1,114 @@
+/**
+ * @(#)PPPconfig.java
+ *
+ * The immutable set of card parameters (alphabet, card dimensions and passcode
+ * length) that a PPPengine generates passcodes with.  These used to live in
+ * static fields on PPPengine itself, which meant only one card set could be
+ * generated at a time; each engine now carries its own configuration so engines
+ * for different card sets can safely run side by side on different threads.
+ */
+
+package com.gpfcomics.android.ppp.jppp;
+public final class PPPconfig {
+
+	/**
+	 * The "standard and conservative" 64-character alphabet from the GRC PPP page.
+	 */
+	public static final String DEFAULT_ALPHABET =
+		"!#%+23456789:=?@ABCDEFGHJKLMNPRSTUVWXYZabcdefghijkmnopqrstuvwxyz";
+
+	/**
+	 * The default GRC card: 7 columns, 10 rows, 4-character passcodes.
+	 */
+	public static final PPPconfig DEFAULT = new PPPconfig(DEFAULT_ALPHABET, 7, 10, 4);
+
+	private final char[] alphabet;
+	private final int columns;
+	private final int rows;
+	private final int passcodeLength;
+	private final int passcodesPerCard;
+
+	/**
+	 * @param alphabet the alphabet, already sorted into ascending order
+	 * @param columns number of columns per card
+	 * @param rows number of rows per card
+	 * @param passcodeLength number of characters per passcode
+	 */
+	public PPPconfig(String alphabet, int columns, int rows, int passcodeLength) {
+		if ( alphabet == null || alphabet.length() < 2 ) {
+			throw new IllegalArgumentException("Alphabet must have at least two characters");
+		}
+		if ( columns < 1 || rows < 1 ) {
+			throw new IllegalArgumentException("Card dimensions must be positive");
+		}
+		if ( passcodeLength < 1 ) {
+			throw new IllegalArgumentException("Passcode length must be positive");
+		}
+		if ( (long)columns * rows > Integer.MAX_VALUE ) {
+			throw new IllegalArgumentException("Too many passcodes per card");
+		}
+		this.alphabet = alphabet.toCharArray();
+		this.columns = columns;
+		this.rows = rows;
+		this.passcodeLength = passcodeLength;
+		this.passcodesPerCard = columns * rows;
+	}
+
+	public String getAlphabet() {
+		return new String( alphabet );
+	}
+
+	public int getAlphabetSize() {
+		return alphabet.length;
+	}
+
+	public int getColumns() {
+		return columns;
+	}
+
+	public int getRows() {
+		return rows;
+	}
+
+	public int getPasscodeLength() {
+		return passcodeLength;
+	}
+
+	public int getPasscodesPerCard() {
+		return passcodesPerCard;
+	}
+
+	/**
+	 * The card a counter's passcode is on, starting from 1
+	 * @param counter passcode counter
+	 */
+	public int getCard(long counter) {
+		long card = counter / passcodesPerCard + 1;
+		if ( counter < 0 || card > Integer.MAX_VALUE ) {
+			throw new IllegalArgumentException("Counter is not on any card");
+		}
+		return (int)card;
+	}
+
+	/**
+	 * The column, starting from 1, a counter's passcode is in
+	 */
+	public int getColumn(long counter) {
+		return (int)( counter % passcodesPerCard ) % columns + 1;
+	}
+
+	/**
+	 * The row, starting from 1, a counter's passcode is in
+	 */
+	public int getRow(long counter) {
+		return (int)( counter % passcodesPerCard ) / columns + 1;
+	}
+
+	/**
+	 * Direct access to the alphabet for the engine's inner loops.  Callers in
+	 * this package must never modify the returned array.
+	 */
+	char[] alphabetChars() {
+		return alphabet;
+	}
+}
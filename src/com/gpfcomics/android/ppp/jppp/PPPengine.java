@@ -8,51 +8,195 @@
  */
 
 package com.gpfcomics.android.ppp.jppp;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.nio.BufferOverflowException;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.bouncycastle.crypto.digests.SHA256Digest;
 public class PPPengine {
 
-    /**
-     * @param args the command line arguments
-     */
-    private static int NO_OF_COLUMNS = 7;
-    private static int NO_OF_ROWS = 10;
-    private static int PASSCODE_LENGTH = 4;
-    private static char[] ALPHABET = {'!','#','%','+','2','3','4','5','6','7','8','9',':','=','?','@','A','B','C','D','E','F','G','H','J','K','L','M','N','P','R','S','T','U','V','W','X','Y','Z','a','b','c','d','e','f','g','h','i','j','k','m','n','o','p','q','r','s','t','u','v','w','x','y','z'};
-    private static int NO_OF_PASSCODES = 70;
-    private static char[] COLUMNS = {'A', 'B', 'C', 'D', 'E', 'F', 'G', 'H', 'I', 'J', 'K', 'L', 'M', 'N', 'O', 'P', 'Q', 'R', 'S', 'T', 'U', 'V', 'W', 'X', 'Y', 'Z'};
-    private String sequenceKey;
+    private static final char[] COLUMNS = {'A', 'B', 'C', 'D', 'E', 'F', 'G', 'H', 'I', 'J', 'K', 'L', 'M', 'N', 'O', 'P', 'Q', 'R', 'S', 'T', 'U', 'V', 'W', 'X', 'Y', 'Z'};
+    /* Card parameters come from an immutable per-engine PPPconfig, so engines
+     * for different card sets never interfere with each other. */
+    private final PPPconfig config;
+    private final char[] alphabet;
+    private final int columns;
+    private final int rows;
+    private final int passcodeLength;
+    private final int passcodesPerCard;
+    /* How many alphabet digits one pass over the cipher block can peel off:
+     * the largest k with alphabet.length^k still usable as a divisor.
+     * powers[j] holds alphabet.length^j for j up to digitsPerPass. */
+    private final int digitsPerPass;
+    private final int[] powers;
+    /* For alphabets whose size is a power of two (such as the default 64),
+     * the number of bits in each digit, otherwise 0.  Dividing by such a base
+     * just shifts the block right, so digits can be read straight out of it. */
+    private final int digitBits;
+    /* Which PPPciphers backend to encrypt counters with */
+    private final String backend;
+    /* The keyed cipher for the current sequence key.  Expanding the key is by
+     * far the most expensive part of setting up the cipher, so we do it once
+     * here rather than once per passcode.  Backends are safe to share between
+     * threads; setSequenceKey() swaps in a whole new one. */
+    private volatile PPPcipher cipher;
+    /* How many counters to hand the cipher at once when generating runs of
+     * passcodes.  Large enough to cover a default card in one call. */
+    private static final int CHUNK_BLOCKS = 128;
+    /* Card text that is the same on every card, built once per engine: the
+     * column heading line (everything after the optional card number) and the
+     * row labels.  Columns are lettered, so only cards up to COLUMNS.length
+     * wide have a heading (and a text form).  Labels are only kept for cards
+     * of up to MAX_ROW_LABELS rows; taller cards format their labels as they go. */
+    private static final int MAX_ROW_LABELS = 1024;
+    private final String columnHeading;
+    private final String[] rowLabels;
+    /* Per-thread working storage for passcode generation, so that steady-state
+     * generation doesn't allocate.  None of it depends on the key or the card
+     * parameters, so every engine on a thread shares the same scratch. */
+    private static final ThreadLocal<Scratch> SCRATCH = new ThreadLocal<Scratch>() {
+    	protected Scratch initialValue() {
+    		return new Scratch();
+    	}
+    };
 
     public PPPengine(String sequenceKey){
-        this.sequenceKey = sequenceKey;
+        this(PPPconfig.DEFAULT, sequenceKey);
     }
 
-	public static void setAlphabet(String alphabetIn){
-		ALPHABET = alphabetIn.toCharArray ();
-		// JTD 8/9/2011: Commenting out the alphabet sort because we've already sorted
-		// the alphabet when we initially stored it.
-    	//ALPHABET = alphaSort(ALPHABET);
-	}
+    public PPPengine(PPPconfig config, String sequenceKey){
+    	this(config, sequenceKey, PPPciphers.AUTO);
+    }
 
-	public static void setCardColumns(int columns){
-		NO_OF_COLUMNS = columns;
-		NO_OF_PASSCODES = NO_OF_COLUMNS * NO_OF_ROWS;
-	}
+    /**
+     * @param config card parameters
+     * @param sequenceKey 64 hex digit sequence key
+     * @param backend PPPciphers backend name, or PPPciphers.AUTO
+     */
+    public PPPengine(PPPconfig config, String sequenceKey, String backend){
+    	this(backend, config);
+        setSequenceKey(sequenceKey);
+    }
 
-	public static void setCardRows(int rows){
-		NO_OF_ROWS = rows;
-		NO_OF_PASSCODES = NO_OF_COLUMNS * NO_OF_ROWS;
-	}
+    /**
+     * Create an engine from a raw sequence key, for callers that keep keys as
+     * bytes so they can wipe them.  The key is not retained.
+     * @param config card parameters
+     * @param sequenceKey 32-byte sequence key
+     * @param backend PPPciphers backend name, or PPPciphers.AUTO
+     */
+    public PPPengine(PPPconfig config, byte[] sequenceKey, String backend){
+    	this(backend, config);
+    	if ( sequenceKey == null || sequenceKey.length != 32 ) {
+    		throw new IllegalArgumentException("Sequence key length incorrect");
+    	}
+    	cipher = PPPciphers.create( backend, sequenceKey );
+    }
 
-	public static void setPasscodeLength(int passcodeLengthIn){
-		PASSCODE_LENGTH = passcodeLengthIn;
-	}
+    /* Setup shared by the public constructors, everything except the cipher.
+     * The arguments are swapped to keep it apart from PPPengine(PPPconfig, String). */
+    private PPPengine(String backend, PPPconfig config){
+    	if ( config == null ) {
+    		throw new IllegalArgumentException("Engine configuration is required");
+    	}
+    	this.config = config;
+    	this.backend = backend;
+    	alphabet = config.alphabetChars();
+    	columns = config.getColumns();
+    	rows = config.getRows();
+    	passcodeLength = config.getPasscodeLength();
+    	passcodesPerCard = config.getPasscodesPerCard();
+    	int k = 1;
+    	long power = alphabet.length;
+    	while ( power * alphabet.length <= Integer.MAX_VALUE ) {
+    		power *= alphabet.length;
+    		++k;
+    	}
+    	digitsPerPass = k;
+    	powers = new int[k + 1];
+    	powers[0] = 1;
+    	for ( int j = 1; j <= k; ++j ) {
+    		powers[j] = powers[j - 1] * alphabet.length;
+    	}
+    	if ( Integer.bitCount( alphabet.length ) == 1 ) {
+    		digitBits = Integer.numberOfTrailingZeros( alphabet.length );
+    	} else {
+    		digitBits = 0;
+    	}
+    	if ( columns <= COLUMNS.length ) {
+    		StringBuilder heading = new StringBuilder( 1 + columns * ( passcodeLength + 1 ) + 1 );
+    		heading.append( '\t' );
+    		for ( int col = 0; col < columns; ++col ) {
+    			heading.append( COLUMNS[col] );
+    			for ( int i = 1; i < passcodeLength; ++i ) {
+    				heading.append( ' ' );
+    			}
+    			heading.append( '\t' );
+    		}
+    		heading.append( '\n' );
+    		columnHeading = heading.toString();
+    	} else {
+    		columnHeading = null;
+    	}
+    	if ( rows <= MAX_ROW_LABELS ) {
+    		rowLabels = new String[rows];
+    		for ( int row = 0; row < rows; ++row ) {
+    			rowLabels[row] = ( row + 1 ) + "\t";
+    		}
+    	} else {
+    		rowLabels = null;
+    	}
+    }
+
+    public PPPconfig getConfig(){
+    	return config;
+    }
 
+    /**
+     * Name of the cipher backend actually in use
+     */
+    public String getCipherName(){
+    	return cipher.getName();
+    }
+
+    /**
+     * SHA-256 of a passphrase's UTF-8 bytes, as 64 lower case hex digits,
+     * for use as a sequence key
+     */
 	public static String hashSequenceKey(String input){
-    	sha256 sha = new sha256();
-  		return sha.hash (input);
+    	byte[] bytes;
+    	try {
+    		bytes = input.getBytes( "UTF-8" );
+    	} catch ( UnsupportedEncodingException e ) {
+    		throw new IllegalStateException(e.toString());
+    	}
+    	SHA256Digest sha = new SHA256Digest();
+    	sha.update( bytes, 0, bytes.length );
+    	byte[] hash = new byte[sha.getDigestSize()];
+    	sha.doFinal( hash, 0 );
+    	return Hex.encode( hash, false );
     }
 
     public void setSequenceKey(String sequenceKey){
-    	this.sequenceKey = sequenceKey;
+    	this.cipher = PPPciphers.create( backend, sequenceKeyToBytes( sequenceKey ) );
+    }
+
+    /**
+     * Wipe the expanded sequence key, as far as the cipher backend allows.
+     * The engine must not be used afterwards.
+     */
+    public void destroy(){
+    	cipher.destroy();
     }
 
     public String generatePasscodeCard(int cardNo){
@@ -60,81 +204,410 @@ public class PPPengine {
     }
 
     public String generatePasscodeCard(int cardNo, boolean header) {
-        String c = "";
-
-        if(header){
-        	c = "C" + cardNo;
-        }
-
-        c += "\t";
-        for (int cols = 0; cols < NO_OF_COLUMNS; cols++) {
-            c += COLUMNS[cols];
-            for(int i=1;i<PASSCODE_LENGTH;i++)
-            	c += " ";
-            c += "\t";
-        }
-        c += "\n";
-
-        int offset = (cardNo-1)*NO_OF_PASSCODES;
+    	int rowLength = 4 + columns * ( passcodeLength + 1 ) + 1;
+    	StringBuilder c = new StringBuilder( 16 + ( rows + 1 ) * rowLength );
+    	try {
+    		writePasscodeCard(cardNo, header, c);
+    	} catch ( IOException e ) {
+    		// StringBuilder never throws IOException
+    		throw new IllegalStateException(e.toString());
+    	}
+    	return c.toString();
+    }
 
-        for (int i = offset; i < offset+NO_OF_PASSCODES; i++) {
+    /**
+     * Write the text of a card to out, in the same tab-separated format as
+     * generatePasscodeCard().  Passcodes are generated a few rows at a time
+     * and written straight from a reusable buffer, so memory use doesn't
+     * grow with the size of the card.
+     * @param cardNo card number, starting from 1
+     * @param header whether to start the heading line with "C" and the card number
+     * @param out destination for the card text
+     * @throws IOException if out throws it
+     */
+    public void writePasscodeCard(int cardNo, boolean header, Appendable out) throws IOException {
+    	writePasscodeCards(cardNo, 1, header, out);
+    }
 
-            if (i % NO_OF_COLUMNS == 0) {
-                c += (((i-offset) / NO_OF_COLUMNS) + 1) + "\t";
-            }
-            c += getPasscode(new Long(i));
-            c += "\t";
+    /**
+     * Write the text of a run of consecutive cards to out, one after another,
+     * reusing the same buffers for every card.
+     * @param firstCard number of the first card, starting from 1
+     * @param cardCount number of cards to write
+     * @param header whether to start each card's heading line with "C" and the card number
+     * @param out destination for the card text
+     * @throws IOException if out throws it
+     */
+    public void writePasscodeCards(int firstCard, int cardCount, boolean header, Appendable out) throws IOException {
+    	if ( firstCard < 1 || cardCount < 0 || (long)firstCard - 1 + cardCount > Integer.MAX_VALUE ) {
+    		throw new IllegalArgumentException("Invalid card range");
+    	}
+    	if ( columnHeading == null ) {
+    		throw new IllegalStateException("Cards with more than " + COLUMNS.length + " columns have no text form");
+    	}
+    	int rowsPerChunk = Math.max( 1, Math.min( rows, CHUNK_BLOCKS / columns ) );
+    	int rowChars = columns * passcodeLength;
+    	char[] chars = new char[rowsPerChunk * rowChars];
+    	CharBuffer view = CharBuffer.wrap( chars );
+    	for ( int card = firstCard; card < firstCard + cardCount; ++card ) {
+    		if ( header ) {
+    			out.append( 'C' ).append( Integer.toString( card ) );
+    		}
+    		out.append( columnHeading );
+    		for ( int row = 1; row <= rows; row += rowsPerChunk ) {
+    			int n = Math.min( rowsPerChunk, rows - row + 1 );
+    			generateRows(card, row, n, chars, 0);
+    			for ( int r = 0; r < n; ++r ) {
+    				if ( rowLabels != null ) {
+    					out.append( rowLabels[row - 1 + r] );
+    				} else {
+    					out.append( Integer.toString( row + r ) ).append( '\t' );
+    				}
+    				for ( int off = r * rowChars; off < ( r + 1 ) * rowChars; off += passcodeLength ) {
+    					append( out, chars, view, off, passcodeLength );
+    					out.append( '\t' );
+    				}
+    				out.append( '\n' );
+    			}
+    		}
+    	}
+    }
 
-            if ((i + 1) % NO_OF_COLUMNS == 0) {
-                c += "\n";
-            }
-        }
-        return c;
+    /**
+     * Write the text of a run of consecutive cards to a channel, encoded as
+     * UTF-8.  The channel is left open.
+     * @param firstCard number of the first card, starting from 1
+     * @param cardCount number of cards to write
+     * @param header whether to start each card's heading line with "C" and the card number
+     * @param channel destination for the encoded card text
+     * @throws IOException if writing to the channel fails
+     */
+    public void writePasscodeCards(int firstCard, int cardCount, boolean header, WritableByteChannel channel) throws IOException {
+    	// The channel writer encodes through its own fixed-size byte buffer, so
+    	// nothing here grows with the number of cards.
+    	Writer out = Channels.newWriter( channel, "UTF-8" );
+    	writePasscodeCards(firstCard, cardCount, header, out);
+    	out.flush();
+    }
 
+    /**
+     * Append part of a char array without going through a temporary String
+     * where the destination allows it.
+     */
+    private static void append(Appendable out, char[] chars, CharBuffer view, int offset, int length) throws IOException {
+    	if ( out instanceof StringBuilder ) {
+    		((StringBuilder)out).append( chars, offset, length );
+    	} else if ( out instanceof Writer ) {
+    		((Writer)out).write( chars, offset, length );
+    	} else {
+    		out.append( view, offset, offset + length );
+    	}
     }
 
     public String getPasscode(int cardIn, int columnIn, int rowIn){
+        return getPasscode(getCounter(cardIn, columnIn, rowIn));
+    }
+
+    /**
+     * The counter of the passcode at the given card coordinates
+     * @param cardIn card number, starting from 1
+     * @param columnIn column number, starting from 1
+     * @param rowIn row number, starting from 1
+     */
+    public long getCounter(int cardIn, int columnIn, int rowIn){
     	rowIn--;
     	cardIn--;
     	columnIn--;
-    	int temp = columnIn + (rowIn * NO_OF_COLUMNS);
-		long tempcard;
-		try {
-	    	tempcard = new Long(cardIn);
-		} catch ( NumberFormatException e ) {
-			throw new IllegalArgumentException("Invalid card number, cannot be parsed to long");
-		}
-
 		if ( cardIn < 0 ) {
 			throw new IllegalArgumentException("Card number must be positive integer");
 		}
-		long counter =  (tempcard) * NO_OF_PASSCODES + temp;
+    	int temp = columnIn + (rowIn * columns);
+		return (long)cardIn * passcodesPerCard + temp;
+    }
 
-        return getPasscode(counter);
+    /**
+     * The card a counter's passcode is on, the reverse of getCounter()
+     * @param counter passcode counter
+     */
+    public int getCard(long counter){
+    	return config.getCard(counter);
+    }
+
+    /**
+     * The column, starting from 1, a counter's passcode is in
+     */
+    public int getColumn(long counter){
+    	return config.getColumn(counter);
+    }
+
+    /**
+     * The row, starting from 1, a counter's passcode is in
+     */
+    public int getRow(long counter){
+    	return config.getRow(counter);
+    }
+
+    /**
+     * Generate a whole card in one pass.
+     * @param cardNo card number, starting from 1
+     */
+    public PasscodeGrid generateCard(int cardNo){
+    	return generateRows(cardNo, 1, rows);
+    }
+
+    /**
+     * Generate a run of consecutive rows from one card in one pass.
+     * @param cardNo card number, starting from 1
+     * @param firstRow first row to generate, starting from 1
+     * @param rowCount number of rows to generate
+     */
+    public PasscodeGrid generateRows(int cardNo, int firstRow, int rowCount){
+    	char[] chars = new char[rowCount * columns * passcodeLength];
+    	generateRows(cardNo, firstRow, rowCount, chars, 0);
+    	return new PasscodeGrid(cardNo, firstRow, rowCount, columns, passcodeLength, chars);
+    }
+
+    /**
+     * Generate a run of consecutive rows from one card straight into a
+     * caller-supplied array, in counter order: row by row, left to right,
+     * passcodeLength characters per passcode.
+     * @param cardNo card number, starting from 1
+     * @param firstRow first row to generate, starting from 1
+     * @param rowCount number of rows to generate
+     * @param dest destination array
+     * @param offset index in dest of the first character to write
+     */
+    public void generateRows(int cardNo, int firstRow, int rowCount, char[] dest, int offset){
+    	if ( firstRow < 1 || rowCount < 0 || firstRow - 1 + rowCount > rows ) {
+    		throw new IllegalArgumentException("Rows are not on the card");
+    	}
+    	int count = rowCount * columns;
+    	if ( offset < 0 || offset > dest.length - count * passcodeLength ) {
+    		throw new IndexOutOfBoundsException("Rows do not fit in destination");
+    	}
+    	generate( cipher, getCounter(cardNo, 1, firstRow), count, SCRATCH.get(), dest, offset );
+    }
+
+    /**
+     * Generate a run of consecutive passcodes, by counter, into a
+     * caller-supplied array in counter order.
+     * @param firstCounter counter of the first passcode
+     * @param count number of passcodes to generate
+     * @param dest destination array
+     * @param offset index in dest of the first character to write
+     */
+    public void generatePasscodes(long firstCounter, int count, char[] dest, int offset){
+    	checkRange( firstCounter, count, dest, offset );
+    	generate( cipher, firstCounter, count, SCRATCH.get(), dest, offset );
+    }
+
+    /**
+     * Generate a run of consecutive passcodes, by counter, split evenly across
+     * the executor's threads.  Each part is written to its own region of dest,
+     * so the result is in counter order no matter which part finishes first.
+     * Every worker thread uses its own scratch state, and its own cipher
+     * state for backends that need it.
+     * @param firstCounter counter of the first passcode
+     * @param count number of passcodes to generate
+     * @param dest destination array
+     * @param offset index in dest of the first character to write
+     * @param executor executor to run the parts on
+     * @param parallelism number of parts to split the run into, normally the
+     * executor's thread count
+     * @throws InterruptedException if interrupted while waiting for the parts;
+     * any unfinished parts are cancelled
+     */
+    public void generatePasscodes(long firstCounter, int count, char[] dest, int offset,
+    		ExecutorService executor, int parallelism) throws InterruptedException {
+    	checkRange( firstCounter, count, dest, offset );
+    	if ( parallelism < 1 ) {
+    		throw new IllegalArgumentException("Parallelism must be positive");
+    	}
+    	// Don't bother splitting below one cipher chunk per part:
+    	int parts = Math.min( parallelism, count / CHUNK_BLOCKS + ( count % CHUNK_BLOCKS == 0 ? 0 : 1 ) );
+    	if ( parts <= 1 ) {
+    		generate( cipher, firstCounter, count, SCRATCH.get(), dest, offset );
+    		return;
+    	}
+    	final PPPcipher cipher = this.cipher;
+    	List<Future<?>> futures = new ArrayList<Future<?>>( parts );
+    	try {
+    		int start = 0;
+    		for ( int part = 0; part < parts; ++part ) {
+    			// Spread the remainder so no two parts differ by more than one passcode
+    			final int n = count / parts + ( part < count % parts ? 1 : 0 );
+    			final long counter = firstCounter + start;
+    			final char[] target = dest;
+    			final int at = offset + start * passcodeLength;
+    			futures.add( executor.submit( new Callable<Void>() {
+    				public Void call() {
+    					generate( cipher, counter, n, SCRATCH.get(), target, at );
+    					return null;
+    				}
+    			} ) );
+    			start += n;
+    		}
+    		for ( Future<?> future : futures ) {
+    			future.get();
+    		}
+    	} catch ( ExecutionException e ) {
+    		Throwable cause = e.getCause();
+    		if ( cause instanceof RuntimeException ) {
+    			throw (RuntimeException)cause;
+    		}
+    		if ( cause instanceof Error ) {
+    			throw (Error)cause;
+    		}
+    		throw new IllegalStateException(String.valueOf( cause ));
+    	} finally {
+    		for ( Future<?> future : futures ) {
+    			future.cancel( true );
+    		}
+    	}
+    }
+
+    /**
+     * Generate a run of whole cards across the executor's threads, as
+     * generatePasscodes(long, int, char[], int, ExecutorService, int) does for
+     * counters.  The cards follow one another in the returned array, each laid
+     * out like a PasscodeGrid.
+     * @param firstCard number of the first card, starting from 1
+     * @param cardCount number of cards to generate
+     * @param executor executor to run the parts on
+     * @param parallelism number of parts to split the run into
+     */
+    public char[] generateCards(int firstCard, int cardCount, ExecutorService executor,
+    		int parallelism) throws InterruptedException {
+    	if ( cardCount < 0 || (long)cardCount * passcodesPerCard * passcodeLength > Integer.MAX_VALUE ) {
+    		throw new IllegalArgumentException("Invalid card count");
+    	}
+    	char[] chars = new char[cardCount * passcodesPerCard * passcodeLength];
+    	generatePasscodes( getCounter(firstCard, 1, 1), cardCount * passcodesPerCard, chars, 0,
+    			executor, parallelism );
+    	return chars;
+    }
+
+    private void checkRange(long firstCounter, int count, char[] dest, int offset){
+    	if ( firstCounter < 0 || count < 0 || firstCounter > Long.MAX_VALUE - count ) {
+    		throw new IllegalArgumentException("Invalid counter range");
+    	}
+    	if ( offset < 0 || offset > dest.length - (long)count * passcodeLength ) {
+    		throw new IndexOutOfBoundsException("Passcodes do not fit in destination");
+    	}
     }
 
     public String getPasscode (long counter){
-        byte[] sequenceKeyBytes=sequenceKeyToBytes (sequenceKey);
-		byte[] counterBytes=counterToBytes(counter);
-		//Find starting character
-		int skip = divide( counterBytes, 1);
-		skip *= PASSCODE_LENGTH;
-		Rijndael r0 = new Rijndael();
-		r0.makeKey( sequenceKeyBytes, 256 );
-		byte [] block = new byte [16];
-		for ( int i = 0; i < 16; ++i ) {
-	    	block[i] = 0;
+    	Scratch scratch = SCRATCH.get();
+    	char[] chars = scratch.chars( passcodeLength );
+    	generate( cipher, counter, scratch, chars, 0 );
+		return new String( chars, 0, passcodeLength );
+    }
+
+    /**
+     * Write the passcode for the given counter into a caller-supplied array.
+     * Once the calling thread has warmed up, this allocates nothing.
+     * @param counter passcode counter
+     * @param dest destination; passcodeLength chars are written
+     * @param offset index in dest of the first passcode character
+     */
+    public void getPasscode (long counter, char[] dest, int offset){
+    	if ( offset < 0 || offset > dest.length - passcodeLength ) {
+    		throw new IndexOutOfBoundsException("Passcode does not fit in destination");
+    	}
+    	generate( cipher, counter, SCRATCH.get(), dest, offset );
+    }
+
+    /**
+     * Write the passcode for the given counter at the buffer's current position,
+     * advancing the position by passcodeLength.  Once the calling thread has
+     * warmed up, this allocates nothing.
+     * @param counter passcode counter
+     * @param dest destination buffer
+     */
+    public void getPasscode (long counter, CharBuffer dest){
+    	if ( dest.remaining() < passcodeLength ) {
+    		throw new BufferOverflowException();
+    	}
+    	Scratch scratch = SCRATCH.get();
+    	if ( dest.hasArray() ) {
+    		int pos = dest.position();
+    		generate( cipher, counter, scratch, dest.array(), dest.arrayOffset() + pos );
+    		dest.position( pos + passcodeLength );
+    	} else {
+    		char[] chars = scratch.chars( passcodeLength );
+    		generate( cipher, counter, scratch, chars, 0 );
+    		dest.put( chars, 0, passcodeLength );
+    	}
+    }
+
+    private void generate (PPPcipher cipher, long counter, Scratch scratch, char[] dest, int offset){
+		// The PPP3 reference divides the counter by 1 to find how many digits to
+		// skip, which always comes out to zero, so there is nothing to skip.
+		cipher.encryptCounters( counter, 1, scratch.blocks, 0 );
+		extract( scratch.blocks, 0, scratch.limbs, dest, offset );
+    }
+
+    /**
+     * Generate count consecutive passcodes, passing the counters to the cipher
+     * in chunks so bulk-capable backends can encrypt many at once.
+     */
+    private void generate (PPPcipher cipher, long counter, int count, Scratch scratch, char[] dest, int offset){
+    	byte[] blocks = scratch.blocks;
+    	while ( count > 0 ) {
+    		int n = Math.min( count, CHUNK_BLOCKS );
+    		cipher.encryptCounters( counter, n, blocks, 0 );
+    		for ( int b = 0; b < n; ++b, offset += passcodeLength ) {
+    			extract( blocks, b * 16, scratch.limbs, dest, offset );
+    		}
+    		counter += n;
+    		count -= n;
+    	}
+    }
+
+    /**
+     * Turn one cipher block into passcode characters
+     */
+    private void extract (byte[] blocks, int blockOff, int[] limbs, char[] dest, int offset){
+		if ( digitBits != 0 ) {
+			extractBits( blocks, blockOff, dest, offset );
+			return;
 		}
-		r0.encrypt( counterBytes, block );
-		for ( int i = 0; i < skip; ++i ) {
-	    	divide( block, ALPHABET.length );
+		toLimbs( blocks, blockOff, limbs );
+		int top = 3;
+		int base = alphabet.length;
+		// Dividing by base^k and then splitting the remainder into k digits
+		// locally gives exactly the same digits as k separate divisions by
+		// base, with only one pass over the whole block.
+		for ( int i = 0; i < passcodeLength; ) {
+			int digits = Math.min( digitsPerPass, passcodeLength - i );
+			int remainder = divide( limbs, top, powers[digits] );
+			for ( int end = i + digits; i < end; ++i ) {
+				dest[offset + i] = alphabet[remainder % base];
+				remainder /= base;
+			}
+	    	while ( top > 0 && limbs[top] == 0 ) {
+	    		--top;
+	    	}
 		}
-    	String pc = "";
-    	for ( int i = 0; i < PASSCODE_LENGTH; ++i ) {
-	    	int remainder = divide( block, ALPHABET.length );
-	    	pc += ALPHABET[remainder];
+    }
+
+    /**
+     * Turn one cipher block into passcode characters when the alphabet size is
+     * 2^digitBits.  Each division by the base is then a right shift of the
+     * 128-bit block by digitBits and each remainder is the bits shifted out,
+     * so the digits are simply successive digitBits-wide fields, lowest first.
+     */
+    private void extractBits (byte[] blocks, int blockOff, char[] dest, int offset){
+		long lo = toLong( blocks, blockOff );
+		long hi = toLong( blocks, blockOff + 8 );
+		int bits = digitBits;
+		int mask = alphabet.length - 1;
+		for ( int i = 0; i < passcodeLength; ++i ) {
+			dest[offset + i] = alphabet[(int)lo & mask];
+			// digitBits is never more than 30, so neither shift wraps around
+			lo = ( lo >>> bits ) | ( hi << ( 64 - bits ) );
+			hi >>>= bits;
 		}
-		return pc;
     }
 
     private byte[] sequenceKeyToBytes(String hex){
@@ -142,31 +615,12 @@ public class PPPengine {
 	    	throw new IllegalArgumentException("Sequence key length incorrect");
 		}
     	byte [] out = new byte[32];
-    	for ( int i = 0; i < 32; ++i ) {
-	    String temp = hex.substring( i*2, i*2+2 );
-	    try {
-			int b = Integer.parseInt( temp, 16 );
-			out[i] = (byte)b;
-	    } catch ( NumberFormatException e ) {
-			throw new IllegalArgumentException("Bad sequence key");
-	    }
-	}
-	return out;
-    }
-
-    private byte[] counterToBytes(long counter){
-    	byte [] out = new byte[16];
-    	for ( int i = 0; i < 16; ++i ) {
-	    	out[i] = 0;
-		}
-		for ( int i = 0; i < 8; ++i ) {
-	    	if ( counter == 0 ) {
-				break;
-	    	}
-			out[i] = (byte)(counter&0xff);;
-	    	counter >>>= 8;
-		}
-		return out;
+    	try {
+    		Hex.decode( hex, 0, 64, out, 0 );
+    	} catch ( IllegalArgumentException e ) {
+    		throw new IllegalArgumentException("Bad sequence key");
+    	}
+    	return out;
     }
 
     /* JTD 8/9/2011:  Since we're not doing the sorting internally anymore, we don't
@@ -204,22 +658,67 @@ public class PPPengine {
 	}*/
 
 	/**
-	 * Byte divider
-	 * @param big byte
-	 * @param small int
+	 * Load a cipher block into 32-bit limbs.  PPP treats the block as a 128-bit
+	 * little-endian number, so limbs[0] holds bytes 0-3 (least significant)
+	 * and limbs[3] holds bytes 12-15.
+	 * @param block buffer holding the 16-byte cipher block
+	 * @param offset offset of the block in the buffer
+	 * @param limbs array of 4 ints to fill
+	 * @return limbs
+	 */
+	private static int[] toLimbs( byte [] block, int offset, int [] limbs ) {
+		for ( int k = 0, i = offset; k < 4; ++k, i += 4 ) {
+			limbs[k] = ( block[i] & 0xFF ) |
+				( ( block[i + 1] & 0xFF ) << 8 ) |
+				( ( block[i + 2] & 0xFF ) << 16 ) |
+				( block[i + 3] << 24 );
+		}
+		return limbs;
+	}
+
+	/**
+	 * Read eight bytes of a cipher block as a little-endian long
+	 */
+	private static long toLong( byte [] block, int offset ) {
+		long value = 0;
+		for ( int i = offset + 7; i >= offset; --i ) {
+			value = ( value << 8 ) | ( block[i] & 0xFF );
+		}
+		return value;
+	}
+
+	/**
+	 * Divide the 128-bit number held in limbs by small, in place, one 32-bit limb
+	 * at a time.  Limbs above top must already be zero.  Since the running
+	 * remainder is always below small, and small fits in 31 bits, each partial
+	 * dividend fits in a signed long.
+	 * @param limbs little-endian 32-bit limbs
+	 * @param top index of the highest limb that may be non-zero
+	 * @param small divisor, between 1 and Integer.MAX_VALUE
 	 * @return remainder
 	 */
-	private int divide( byte [] big, int small ) {
-		int c = 0;
-		int remainder = 0;
-		for ( int i = 15; i >= 0; --i ) {
-	    	int v = big[i] & 0xFF;
-	    	v += c;
-	    	int r = v / small;
-	    	c = ( ( 256 * v ) - ( 256 * r * small ) );
-	    	remainder = c / 256;
-	    	big[i] = (byte)r;
+	private static int divide( int [] limbs, int top, int small ) {
+		long remainder = 0;
+		for ( int k = top; k >= 0; --k ) {
+			long v = ( remainder << 32 ) | ( limbs[k] & 0xFFFFFFFFL );
+			long q = v / small;
+			remainder = v - q * small;
+			limbs[k] = (int)q;
 		}
-		return remainder;
+		return (int)remainder;
     }
+
+	private static final class Scratch {
+		final byte[] blocks = new byte[CHUNK_BLOCKS * 16];
+		final int[] limbs = new int[4];
+		/* Big enough for the longest passcode PPP allows */
+		private char[] chars = new char[16];
+
+		char[] chars(int length) {
+			if ( chars.length < length ) {
+				chars = new char[length];
+			}
+			return chars;
+		}
+	}
 }
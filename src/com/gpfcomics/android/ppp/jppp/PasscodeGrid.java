@@ -0,0 +1,99 @@
+/**
+ * @(#)PasscodeGrid.java
+ *
+ * A block of consecutive rows from a single passcode card, stored as one flat
+ * char array rather than one String per cell.  Passcodes are laid out row by
+ * row, left to right, exactly in counter order, each taking passcodeLength
+ * characters.  Rows and columns are numbered from 1 like the rest of PPP.
+ */
+
+package com.gpfcomics.android.ppp.jppp;
+import java.nio.CharBuffer;
+public final class PasscodeGrid {
+
+	private final int card;
+	private final int firstRow;
+	private final int rowCount;
+	private final int columns;
+	private final int passcodeLength;
+	private final char[] chars;
+
+	/**
+	 * Wrap an array of passcode characters, such as one filled by
+	 * PPPengine.generateRows(int, int, int, char[], int).  The array is not copied.
+	 * @param card card number the rows belong to
+	 * @param firstRow number of the first row held
+	 * @param rowCount number of rows held
+	 * @param columns number of columns per row
+	 * @param passcodeLength number of characters per passcode
+	 * @param chars the passcode characters, in counter order
+	 */
+	public PasscodeGrid(int card, int firstRow, int rowCount, int columns,
+			int passcodeLength, char[] chars) {
+		if ( firstRow < 1 || rowCount < 0 || columns < 1 || passcodeLength < 1 ) {
+			throw new IllegalArgumentException("Invalid grid dimensions");
+		}
+		if ( chars == null || chars.length != rowCount * columns * passcodeLength ) {
+			throw new IllegalArgumentException("Passcode array does not match grid dimensions");
+		}
+		this.card = card;
+		this.firstRow = firstRow;
+		this.rowCount = rowCount;
+		this.columns = columns;
+		this.passcodeLength = passcodeLength;
+		this.chars = chars;
+	}
+
+	public int getCard() {
+		return card;
+	}
+
+	public int getFirstRow() {
+		return firstRow;
+	}
+
+	public int getRowCount() {
+		return rowCount;
+	}
+
+	public int getColumns() {
+		return columns;
+	}
+
+	public int getPasscodeLength() {
+		return passcodeLength;
+	}
+
+	/**
+	 * The backing array itself; changes to it show through the grid.
+	 */
+	public char[] getChars() {
+		return chars;
+	}
+
+	/**
+	 * Index in getChars() of the first character of a passcode.
+	 * @param column column number, starting from 1
+	 * @param row row number on the card, between getFirstRow() and the last row held
+	 */
+	public int offsetOf(int column, int row) {
+		if ( column < 1 || column > columns ) {
+			throw new IndexOutOfBoundsException("Column " + column + " is not on this card");
+		}
+		if ( row < firstRow || row >= firstRow + rowCount ) {
+			throw new IndexOutOfBoundsException("Row " + row + " is not held by this grid");
+		}
+		return ( ( row - firstRow ) * columns + column - 1 ) * passcodeLength;
+	}
+
+	public String getPasscode(int column, int row) {
+		return new String( chars, offsetOf( column, row ), passcodeLength );
+	}
+
+	/**
+	 * A read-only view of one passcode that shares the grid's storage.
+	 */
+	public CharSequence getPasscodeView(int column, int row) {
+		return CharBuffer.wrap( chars, offsetOf( column, row ), passcodeLength ).asReadOnlyBuffer();
+	}
+}
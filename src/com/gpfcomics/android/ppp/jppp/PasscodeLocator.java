@@ -0,0 +1,124 @@
+/**
+ * @(#)PasscodeLocator.java
+ *
+ * Works out where a typed passcode came from by scanning a range of counters
+ * for it, for support requests along the lines of "my code didn't work".
+ * The range is handed out to the worker threads in small chunks, lowest
+ * counters first, and the scan stops as soon as every chunk below the
+ * earliest match found so far is done, so the answer is always the lowest
+ * matching counter in the range.  PPPengine.getCard(), getColumn() and getRow()
+ * turn the counter into card coordinates.
+ */
+
+package com.gpfcomics.android.ppp.jppp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+public final class PasscodeLocator {
+
+	/** Returned by locate() when the passcode is not in the range */
+	public static final long NOT_FOUND = -1L;
+
+	/* How many counters a worker takes at a time */
+	private static final int CHUNK = 4096;
+
+	private PasscodeLocator() {
+	}
+
+	/**
+	 * Find the lowest counter in a range whose passcode matches.
+	 * @param engine engine holding the card parameters and sequence key
+	 * @param passcode the passcode to look for
+	 * @param firstCounter first counter to check
+	 * @param count number of counters to check
+	 * @param executor executor to run the workers on
+	 * @param parallelism number of workers to run
+	 * @return the matching counter, or NOT_FOUND
+	 * @throws InterruptedException if interrupted while waiting for the
+	 * workers; they are cancelled
+	 */
+	public static long locate(final PPPengine engine, final CharSequence passcode,
+			final long firstCounter, final long count, ExecutorService executor,
+			int parallelism) throws InterruptedException {
+		if ( firstCounter < 0 || count < 0 || firstCounter > Long.MAX_VALUE - count ) {
+			throw new IllegalArgumentException("Invalid counter range");
+		}
+		if ( parallelism < 1 ) {
+			throw new IllegalArgumentException("Parallelism must be positive");
+		}
+		final int length = engine.getConfig().getPasscodeLength();
+		if ( passcode == null || passcode.length() != length || count == 0 ) {
+			return NOT_FOUND;
+		}
+		// Offset of the next chunk to hand out, and the lowest match so far:
+		final AtomicLong next = new AtomicLong( 0 );
+		final AtomicLong best = new AtomicLong( Long.MAX_VALUE );
+		int workers = (int)Math.min( parallelism, ( count + CHUNK - 1 ) / CHUNK );
+		List<Future<?>> futures = new ArrayList<Future<?>>( workers );
+		try {
+			for ( int w = 0; w < workers; ++w ) {
+				futures.add( executor.submit( new Callable<Void>() {
+					public Void call() {
+						scan( engine, passcode, length, firstCounter, count, next, best );
+						return null;
+					}
+				} ) );
+			}
+			for ( Future<?> future : futures ) {
+				future.get();
+			}
+		} catch ( ExecutionException e ) {
+			Throwable cause = e.getCause();
+			if ( cause instanceof RuntimeException ) {
+				throw (RuntimeException)cause;
+			}
+			if ( cause instanceof Error ) {
+				throw (Error)cause;
+			}
+			throw new IllegalStateException(String.valueOf( cause ));
+		} finally {
+			for ( Future<?> future : futures ) {
+				future.cancel( true );
+			}
+		}
+		long found = best.get();
+		return found == Long.MAX_VALUE ? NOT_FOUND : found;
+	}
+
+	private static void scan(PPPengine engine, CharSequence passcode, int length,
+			long firstCounter, long count, AtomicLong next, AtomicLong best) {
+		char[] chars = new char[CHUNK * length];
+		char first = passcode.charAt( 0 );
+		while ( !Thread.currentThread().isInterrupted() ) {
+			long start = next.getAndAdd( CHUNK );
+			// Chunks are handed out in order, so once one starts past the best
+			// match every later one does too:
+			if ( start >= count || firstCounter + start > best.get() ) {
+				return;
+			}
+			int n = (int)Math.min( CHUNK, count - start );
+			engine.generatePasscodes( firstCounter + start, n, chars, 0 );
+			for ( int i = 0, off = 0; i < n; ++i, off += length ) {
+				if ( chars[off] != first ) {
+					continue;
+				}
+				int j = 1;
+				while ( j < length && chars[off + j] == passcode.charAt( j ) ) {
+					++j;
+				}
+				if ( j == length ) {
+					long counter = firstCounter + start + i;
+					long current;
+					do {
+						current = best.get();
+					} while ( counter < current && !best.compareAndSet( current, counter ) );
+					return;
+				}
+			}
+		}
+	}
+}
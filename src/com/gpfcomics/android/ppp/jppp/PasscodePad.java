@@ -0,0 +1,297 @@
+/**
+ * @(#)PasscodePad.java
+ *
+ * A file of pre-generated passcodes for provisioning users who print their
+ * cards offline.  The file is a small header followed by one fixed-width
+ * record per passcode, in counter order, so any passcode can be found by
+ * offset without reading the rest of the file.  Both writing and reading go
+ * through memory mappings of the file rather than stream I/O.
+ *
+ * Layout (big-endian):
+ *
+ *   int    MAGIC
+ *   int    VERSION
+ *   int    header size in bytes, including padding
+ *   int    columns
+ *   int    rows
+ *   int    passcode length
+ *   long   first counter
+ *   long   number of passcodes
+ *   int    alphabet length
+ *   char[] alphabet
+ *   (zero padding to a multiple of 8 bytes)
+ *   char[] passcodes, passcode length chars each
+ */
+
+package com.gpfcomics.android.ppp.jppp;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+public final class PasscodePad {
+
+	/* "PPad" */
+	private static final int MAGIC = 0x50506164;
+	private static final int VERSION = 1;
+
+	/* Largest region of the file mapped at once.  Mappings are limited to 2GB,
+	 * and smaller ones are kinder to devices with little address space. */
+	private static final long MAP_BYTES = 64L * 1024 * 1024;
+
+	/* How many passcodes a writer generates between copies into the mapping */
+	private static final int BATCH = 1024;
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final PPPconfig config;
+	private final long firstCounter;
+	private final long count;
+	private final int headerBytes;
+	private final int recordBytes;
+	private final long recordsPerMap;
+	/* Read-only mappings of the passcode records, made as they are first needed */
+	private final MappedByteBuffer[] maps;
+
+	private PasscodePad(RandomAccessFile file) throws IOException {
+		this.file = file;
+		channel = file.getChannel();
+		ByteBuffer fixed = ByteBuffer.allocate( 44 );
+		readFully( fixed, 0 );
+		if ( fixed.getInt( 0 ) != MAGIC || fixed.getInt( 4 ) != VERSION ) {
+			throw new IOException("Not a passcode pad file");
+		}
+		headerBytes = fixed.getInt( 8 );
+		int alphabetLength = fixed.getInt( 40 );
+		if ( alphabetLength < 2 || alphabetLength > 0xFFFF || headerBytes != headerBytes( alphabetLength ) ) {
+			throw new IOException("Corrupt passcode pad header");
+		}
+		ByteBuffer alphabet = ByteBuffer.allocate( alphabetLength * 2 );
+		readFully( alphabet, 44 );
+		try {
+			config = new PPPconfig(alphabet.asCharBuffer().toString(), fixed.getInt( 12 ),
+				fixed.getInt( 16 ), fixed.getInt( 20 ));
+		} catch ( IllegalArgumentException e ) {
+			throw new IOException("Corrupt passcode pad header: " + e.getMessage());
+		}
+		firstCounter = fixed.getLong( 24 );
+		count = fixed.getLong( 32 );
+		recordBytes = config.getPasscodeLength() * 2;
+		recordsPerMap = MAP_BYTES / recordBytes;
+		if ( count < 0 || channel.size() < headerBytes + count * recordBytes ) {
+			throw new IOException("Passcode pad file is truncated");
+		}
+		maps = new MappedByteBuffer[(int)( ( count + recordsPerMap - 1 ) / recordsPerMap )];
+	}
+
+	/**
+	 * Write a run of consecutive passcodes to a new pad file, replacing any
+	 * existing file.  The run is split evenly across the executor's threads and
+	 * each part generates straight into its own region of the file.  To export
+	 * whole cards from a card set, create the engine with Cardset.createEngine()
+	 * and start from engine.getCounter(firstCard, 1, 1).
+	 * @param engine engine holding the card parameters and sequence key
+	 * @param firstCounter counter of the first passcode
+	 * @param count number of passcodes to write
+	 * @param file file to write
+	 * @param executor executor to run the parts on
+	 * @param parallelism number of parts to split the run into
+	 * @throws IOException if the file can't be written
+	 * @throws InterruptedException if interrupted while waiting for the parts
+	 */
+	public static void export(final PPPengine engine, long firstCounter, long count, File file,
+			ExecutorService executor, int parallelism) throws IOException, InterruptedException {
+		if ( firstCounter < 0 || count < 0 || firstCounter > Long.MAX_VALUE - count ) {
+			throw new IllegalArgumentException("Invalid counter range");
+		}
+		if ( parallelism < 1 ) {
+			throw new IllegalArgumentException("Parallelism must be positive");
+		}
+		PPPconfig config = engine.getConfig();
+		String alphabet = config.getAlphabet();
+		final int header = headerBytes( alphabet.length() );
+		final int recordBytes = config.getPasscodeLength() * 2;
+		RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+		try {
+			final FileChannel channel = raf.getChannel();
+			raf.setLength( 0 );
+			raf.setLength( header + count * recordBytes );
+
+			ByteBuffer buffer = ByteBuffer.allocate( header );
+			buffer.putInt( MAGIC ).putInt( VERSION ).putInt( header )
+				.putInt( config.getColumns() ).putInt( config.getRows() )
+				.putInt( config.getPasscodeLength() ).putLong( firstCounter ).putLong( count )
+				.putInt( alphabet.length() );
+			buffer.asCharBuffer().put( alphabet );
+			buffer.clear();
+			while ( buffer.hasRemaining() ) {
+				channel.write( buffer, buffer.position() );
+			}
+
+			int parts = (int)Math.max( 1, Math.min( parallelism, count / BATCH ) );
+			List<Future<?>> futures = new ArrayList<Future<?>>( parts );
+			try {
+				long start = 0;
+				for ( int part = 0; part < parts; ++part ) {
+					final long n = count / parts + ( part < count % parts ? 1 : 0 );
+					final long counter = firstCounter + start;
+					final long position = header + start * recordBytes;
+					futures.add( executor.submit( new Callable<Void>() {
+						public Void call() throws IOException {
+							fill( engine, channel, counter, n, position, recordBytes );
+							return null;
+						}
+					} ) );
+					start += n;
+				}
+				for ( Future<?> future : futures ) {
+					future.get();
+				}
+			} catch ( ExecutionException e ) {
+				Throwable cause = e.getCause();
+				if ( cause instanceof IOException ) {
+					throw (IOException)cause;
+				}
+				if ( cause instanceof RuntimeException ) {
+					throw (RuntimeException)cause;
+				}
+				if ( cause instanceof Error ) {
+					throw (Error)cause;
+				}
+				throw new IllegalStateException(String.valueOf( cause ));
+			} finally {
+				for ( Future<?> future : futures ) {
+					future.cancel( true );
+				}
+			}
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Open an existing pad file for reading.  Only the header is read here;
+	 * passcodes are read from the mapped file as they are asked for.
+	 */
+	public static PasscodePad open(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile( file, "r" );
+		try {
+			return new PasscodePad( raf );
+		} catch ( IOException e ) {
+			raf.close();
+			throw e;
+		}
+	}
+
+	public PPPconfig getConfig() {
+		return config;
+	}
+
+	public long getFirstCounter() {
+		return firstCounter;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * The passcode for a counter held in the pad
+	 */
+	public String getPasscode(long counter) throws IOException {
+		char[] chars = new char[config.getPasscodeLength()];
+		getPasscode( counter, chars, 0 );
+		return new String( chars );
+	}
+
+	/**
+	 * Copy the passcode for a counter held in the pad into a caller-supplied
+	 * array.  This only touches the one record.
+	 * @param counter passcode counter
+	 * @param dest destination; the passcode length in chars is written
+	 * @param offset index in dest of the first passcode character
+	 * @throws IndexOutOfBoundsException if the counter is not in the pad
+	 */
+	public void getPasscode(long counter, char[] dest, int offset) throws IOException {
+		long index = counter - firstCounter;
+		if ( counter < firstCounter || index >= count ) {
+			throw new IndexOutOfBoundsException("Counter " + counter + " is not in this pad");
+		}
+		int length = config.getPasscodeLength();
+		if ( offset < 0 || offset > dest.length - length ) {
+			throw new IndexOutOfBoundsException("Passcode does not fit in destination");
+		}
+		MappedByteBuffer map = map( (int)( index / recordsPerMap ) );
+		int position = (int)( index % recordsPerMap ) * recordBytes;
+		// Absolute gets leave the shared buffer's position alone, so any
+		// number of threads can read at once.
+		for ( int i = 0; i < length; ++i ) {
+			dest[offset + i] = map.getChar( position + i * 2 );
+		}
+	}
+
+	public void close() throws IOException {
+		file.close();
+	}
+
+	private synchronized MappedByteBuffer map(int segment) throws IOException {
+		if ( maps[segment] == null ) {
+			long first = segment * recordsPerMap;
+			long records = Math.min( recordsPerMap, count - first );
+			maps[segment] = channel.map( FileChannel.MapMode.READ_ONLY,
+				headerBytes + first * recordBytes, records * recordBytes );
+		}
+		return maps[segment];
+	}
+
+	/**
+	 * Generate one part of an export into its region of the file, mapping at
+	 * most MAP_BYTES of it at a time.
+	 */
+	private static void fill(PPPengine engine, FileChannel channel, long counter, long count,
+			long position, int recordBytes) throws IOException {
+		int length = recordBytes / 2;
+		long recordsPerMap = MAP_BYTES / recordBytes;
+		char[] chars = new char[BATCH * length];
+		while ( count > 0 ) {
+			long records = Math.min( count, recordsPerMap );
+			MappedByteBuffer map = channel.map( FileChannel.MapMode.READ_WRITE,
+				position, records * recordBytes );
+			CharBuffer out = map.asCharBuffer();
+			for ( long done = 0; done < records; ) {
+				if ( Thread.interrupted() ) {
+					throw new IOException("Passcode pad export interrupted");
+				}
+				int n = (int)Math.min( BATCH, records - done );
+				engine.generatePasscodes( counter + done, n, chars, 0 );
+				out.put( chars, 0, n * length );
+				done += n;
+			}
+			map.force();
+			counter += records;
+			count -= records;
+			position += records * recordBytes;
+		}
+	}
+
+	private static int headerBytes(int alphabetLength) {
+		return ( 44 + alphabetLength * 2 + 7 ) & ~7;
+	}
+
+	private void readFully(ByteBuffer buffer, long position) throws IOException {
+		while ( buffer.hasRemaining() ) {
+			if ( channel.read( buffer, position + buffer.position() ) < 0 ) {
+				throw new IOException("Passcode pad file is truncated");
+			}
+		}
+		buffer.flip();
+	}
+}
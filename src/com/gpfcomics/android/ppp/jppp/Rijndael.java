@@ -388,7 +388,9 @@ public class Rijndael {
 		Nr = Nk + 6;
 		Nw = 4*(Nr + 1);
 		rek = new int[Nw];
-		rdk = new int[Nw];
+		// Only allocate the decryption schedule if we're actually going to
+		// build it; encrypt-only callers such as PPPengine never touch it.
+		rdk = (direction & DIR_DECRYPT) != 0 ? new int[Nw] : null;
 		if ((direction & DIR_BOTH) != 0) {
 			expandKey(cipherKey);
 			/*
@@ -418,6 +420,19 @@ public class Rijndael {
 		makeKey(cipherKey, keyBits, DIR_BOTH);
 	}
 
+	/**
+	 * Overwrite the key schedules with zeros.  The instance can't encrypt or
+	 * decrypt again until makeKey() is called.
+	 */
+	public void clearKey() {
+		if (rek != null) {
+			java.util.Arrays.fill(rek, 0);
+		}
+		if (rdk != null) {
+			java.util.Arrays.fill(rdk, 0);
+		}
+	}
+
 	/**
 	 * Encrypt exactly one block (BLOCK_SIZE bytes) of plaintext.
 	 *
@@ -425,27 +440,41 @@ public class Rijndael {
 	 * @param   ct          ciphertext block.
 	 */
 	public void encrypt(byte[] pt, byte[] ct) {
+		encrypt(pt, 0, ct, 0);
+	}
+
+	/**
+	 * Encrypt exactly one block (BLOCK_SIZE bytes) of plaintext.  The whole
+	 * input block is read before any output is written, so pt and ct may be
+	 * the same block of the same array.
+	 *
+	 * @param   pt          plaintext buffer.
+	 * @param   ptOff       offset of the plaintext block in pt.
+	 * @param   ct          ciphertext buffer.
+	 * @param   ctOff       offset of the ciphertext block in ct.
+	 */
+	public void encrypt(byte[] pt, int ptOff, byte[] ct, int ctOff) {
 		/*
 	     * map byte array block to cipher state
 	     * and add initial round key:
 	     */
 		int k = 0, v;
-		int t0   = ((pt[ 0]       ) << 24 |
-					(pt[ 1] & 0xff) << 16 |
-					(pt[ 2] & 0xff) <<  8 |
-					(pt[ 3] & 0xff)        ) ^ rek[0];
-		int t1   = ((pt[ 4]       ) << 24 |
-					(pt[ 5] & 0xff) << 16 |
-					(pt[ 6] & 0xff) <<  8 |
-					(pt[ 7] & 0xff)        ) ^ rek[1];
-		int t2   = ((pt[ 8]       ) << 24 |
-					(pt[ 9] & 0xff) << 16 |
-					(pt[10] & 0xff) <<  8 |
-					(pt[11] & 0xff)        ) ^ rek[2];
-		int t3   = ((pt[12]       ) << 24 |
-					(pt[13] & 0xff) << 16 |
-					(pt[14] & 0xff) <<  8 |
-					(pt[15] & 0xff)        ) ^ rek[3];
+		int t0   = ((pt[ptOff +  0]       ) << 24 |
+					(pt[ptOff +  1] & 0xff) << 16 |
+					(pt[ptOff +  2] & 0xff) <<  8 |
+					(pt[ptOff +  3] & 0xff)        ) ^ rek[0];
+		int t1   = ((pt[ptOff +  4]       ) << 24 |
+					(pt[ptOff +  5] & 0xff) << 16 |
+					(pt[ptOff +  6] & 0xff) <<  8 |
+					(pt[ptOff +  7] & 0xff)        ) ^ rek[1];
+		int t2   = ((pt[ptOff +  8]       ) << 24 |
+					(pt[ptOff +  9] & 0xff) << 16 |
+					(pt[ptOff + 10] & 0xff) <<  8 |
+					(pt[ptOff + 11] & 0xff)        ) ^ rek[2];
+		int t3   = ((pt[ptOff + 12]       ) << 24 |
+					(pt[ptOff + 13] & 0xff) << 16 |
+					(pt[ptOff + 14] & 0xff) <<  8 |
+					(pt[ptOff + 15] & 0xff)        ) ^ rek[3];
 		/*
 	     * Nr - 1 full rounds:
 	     */
@@ -483,28 +512,342 @@ public class Rijndael {
 		k += 4;
 
 		v = rek[k    ];
-		ct[ 0] = (byte)(Se[(t0 >>> 24)       ] ^ (v >>> 24));
-		ct[ 1] = (byte)(Se[(t1 >>> 16) & 0xff] ^ (v >>> 16));
-		ct[ 2] = (byte)(Se[(t2 >>>  8) & 0xff] ^ (v >>>  8));
-		ct[ 3] = (byte)(Se[(t3       ) & 0xff] ^ (v       ));
+		ct[ctOff +  0] = (byte)(Se[(t0 >>> 24)       ] ^ (v >>> 24));
+		ct[ctOff +  1] = (byte)(Se[(t1 >>> 16) & 0xff] ^ (v >>> 16));
+		ct[ctOff +  2] = (byte)(Se[(t2 >>>  8) & 0xff] ^ (v >>>  8));
+		ct[ctOff +  3] = (byte)(Se[(t3       ) & 0xff] ^ (v       ));
 	
 		v = rek[k + 1];
-		ct[ 4] = (byte)(Se[(t1 >>> 24)       ] ^ (v >>> 24));
-		ct[ 5] = (byte)(Se[(t2 >>> 16) & 0xff] ^ (v >>> 16));
-		ct[ 6] = (byte)(Se[(t3 >>>  8) & 0xff] ^ (v >>>  8));
-		ct[ 7] = (byte)(Se[(t0       ) & 0xff] ^ (v       ));
+		ct[ctOff +  4] = (byte)(Se[(t1 >>> 24)       ] ^ (v >>> 24));
+		ct[ctOff +  5] = (byte)(Se[(t2 >>> 16) & 0xff] ^ (v >>> 16));
+		ct[ctOff +  6] = (byte)(Se[(t3 >>>  8) & 0xff] ^ (v >>>  8));
+		ct[ctOff +  7] = (byte)(Se[(t0       ) & 0xff] ^ (v       ));
 	
 		v = rek[k + 2];
-		ct[ 8] = (byte)(Se[(t2 >>> 24)       ] ^ (v >>> 24));
-		ct[ 9] = (byte)(Se[(t3 >>> 16) & 0xff] ^ (v >>> 16));
-		ct[10] = (byte)(Se[(t0 >>>  8) & 0xff] ^ (v >>>  8));
-		ct[11] = (byte)(Se[(t1       ) & 0xff] ^ (v       ));
+		ct[ctOff +  8] = (byte)(Se[(t2 >>> 24)       ] ^ (v >>> 24));
+		ct[ctOff +  9] = (byte)(Se[(t3 >>> 16) & 0xff] ^ (v >>> 16));
+		ct[ctOff + 10] = (byte)(Se[(t0 >>>  8) & 0xff] ^ (v >>>  8));
+		ct[ctOff + 11] = (byte)(Se[(t1       ) & 0xff] ^ (v       ));
 	
 		v = rek[k + 3];
-		ct[12] = (byte)(Se[(t3 >>> 24)       ] ^ (v >>> 24));
-		ct[13] = (byte)(Se[(t0 >>> 16) & 0xff] ^ (v >>> 16));
-		ct[14] = (byte)(Se[(t1 >>>  8) & 0xff] ^ (v >>>  8));
-		ct[15] = (byte)(Se[(t2       ) & 0xff] ^ (v       ));
+		ct[ctOff + 12] = (byte)(Se[(t3 >>> 24)       ] ^ (v >>> 24));
+		ct[ctOff + 13] = (byte)(Se[(t0 >>> 16) & 0xff] ^ (v >>> 16));
+		ct[ctOff + 14] = (byte)(Se[(t1 >>>  8) & 0xff] ^ (v >>>  8));
+		ct[ctOff + 15] = (byte)(Se[(t2       ) & 0xff] ^ (v       ));
+	}
+
+	/**
+	 * Encrypt a run of consecutive PPP counter blocks.  Each counter becomes a
+	 * plaintext block holding the counter in little-endian order followed by
+	 * eight zero bytes, so the initial cipher state can be built straight from
+	 * the counter without going through a byte array.  Blocks are processed
+	 * four at a time with their rounds interleaved; the four blocks are
+	 * independent, so their table lookups can overlap in the CPU rather than
+	 * each round waiting on the one before it.
+	 *
+	 * @param   baseCounter counter of the first block.
+	 * @param   count       number of blocks to encrypt.
+	 * @param   ct          ciphertext buffer (count * BLOCK_SIZE bytes).
+	 * @param   ctOff       offset of the first ciphertext block in ct.
+	 */
+	public void encryptBlocks(long baseCounter, int count, byte[] ct, int ctOff) {
+		int i = 0;
+		for (; i + 4 <= count; i += 4, ctOff += 4 * BLOCK_SIZE) {
+			encryptCounters4(baseCounter + i, ct, ctOff);
+		}
+		for (; i < count; i++, ctOff += BLOCK_SIZE) {
+			encryptCounter(baseCounter + i, ct, ctOff);
+		}
+	}
+
+	/**
+	 * Encrypt the PPP counter block for a single counter.
+	 *
+	 * @param   counter     the counter.
+	 * @param   ct          ciphertext buffer.
+	 * @param   ctOff       offset of the ciphertext block in ct.
+	 */
+	private void encryptCounter(long counter, byte[] ct, int ctOff) {
+		int k = 0, v;
+		int t0 = Integer.reverseBytes((int)counter) ^ rek[0];
+		int t1 = Integer.reverseBytes((int)(counter >>> 32)) ^ rek[1];
+		int t2 = rek[2];
+		int t3 = rek[3];
+		for (int r = 1; r < Nr; r++) {
+			k += 4;
+			int tn0 =
+				Te0[(t0 >>> 24)       ] ^
+				Te1[(t1 >>> 16) & 0xff] ^
+				Te2[(t2 >>>  8) & 0xff] ^
+				Te3[(t3       ) & 0xff] ^
+				rek[k    ];
+			int tn1 =
+				Te0[(t1 >>> 24)       ] ^
+				Te1[(t2 >>> 16) & 0xff] ^
+				Te2[(t3 >>>  8) & 0xff] ^
+				Te3[(t0       ) & 0xff] ^
+				rek[k + 1];
+			int tn2 =
+				Te0[(t2 >>> 24)       ] ^
+				Te1[(t3 >>> 16) & 0xff] ^
+				Te2[(t0 >>>  8) & 0xff] ^
+				Te3[(t1       ) & 0xff] ^
+				rek[k + 2];
+			int tn3 =
+				Te0[(t3 >>> 24)       ] ^
+				Te1[(t0 >>> 16) & 0xff] ^
+				Te2[(t1 >>>  8) & 0xff] ^
+				Te3[(t2       ) & 0xff] ^
+				rek[k + 3];
+			t0 = tn0; t1 = tn1; t2 = tn2; t3 = tn3;
+		}
+		/*
+		 * last round lacks MixColumn:
+		 */
+		k += 4;
+
+		v = rek[k    ];
+		ct[ctOff     ] = (byte)(Se[(t0 >>> 24)       ] ^ (v >>> 24));
+		ct[ctOff +  1] = (byte)(Se[(t1 >>> 16) & 0xff] ^ (v >>> 16));
+		ct[ctOff +  2] = (byte)(Se[(t2 >>>  8) & 0xff] ^ (v >>>  8));
+		ct[ctOff +  3] = (byte)(Se[(t3       ) & 0xff] ^ (v       ));
+		v = rek[k + 1];
+		ct[ctOff +  4] = (byte)(Se[(t1 >>> 24)       ] ^ (v >>> 24));
+		ct[ctOff +  5] = (byte)(Se[(t2 >>> 16) & 0xff] ^ (v >>> 16));
+		ct[ctOff +  6] = (byte)(Se[(t3 >>>  8) & 0xff] ^ (v >>>  8));
+		ct[ctOff +  7] = (byte)(Se[(t0       ) & 0xff] ^ (v       ));
+		v = rek[k + 2];
+		ct[ctOff +  8] = (byte)(Se[(t2 >>> 24)       ] ^ (v >>> 24));
+		ct[ctOff +  9] = (byte)(Se[(t3 >>> 16) & 0xff] ^ (v >>> 16));
+		ct[ctOff + 10] = (byte)(Se[(t0 >>>  8) & 0xff] ^ (v >>>  8));
+		ct[ctOff + 11] = (byte)(Se[(t1       ) & 0xff] ^ (v       ));
+		v = rek[k + 3];
+		ct[ctOff + 12] = (byte)(Se[(t3 >>> 24)       ] ^ (v >>> 24));
+		ct[ctOff + 13] = (byte)(Se[(t0 >>> 16) & 0xff] ^ (v >>> 16));
+		ct[ctOff + 14] = (byte)(Se[(t1 >>>  8) & 0xff] ^ (v >>>  8));
+		ct[ctOff + 15] = (byte)(Se[(t2       ) & 0xff] ^ (v       ));
+	}
+
+	/**
+	 * Encrypt the PPP counter blocks for four consecutive counters, with the
+	 * rounds of the four blocks interleaved.
+	 *
+	 * @param   counter     counter of the first block.
+	 * @param   ct          ciphertext buffer.
+	 * @param   ctOff       offset of the first ciphertext block in ct.
+	 */
+	private void encryptCounters4(long counter, byte[] ct, int ctOff) {
+		int k = 0, v;
+		int a0 = Integer.reverseBytes((int)counter) ^ rek[0];
+		int a1 = Integer.reverseBytes((int)(counter >>> 32)) ^ rek[1];
+		int a2 = rek[2];
+		int a3 = rek[3];
+		long ctr1 = counter + 1;
+		int b0 = Integer.reverseBytes((int)ctr1) ^ rek[0];
+		int b1 = Integer.reverseBytes((int)(ctr1 >>> 32)) ^ rek[1];
+		int b2 = rek[2];
+		int b3 = rek[3];
+		long ctr2 = counter + 2;
+		int c0 = Integer.reverseBytes((int)ctr2) ^ rek[0];
+		int c1 = Integer.reverseBytes((int)(ctr2 >>> 32)) ^ rek[1];
+		int c2 = rek[2];
+		int c3 = rek[3];
+		long ctr3 = counter + 3;
+		int d0 = Integer.reverseBytes((int)ctr3) ^ rek[0];
+		int d1 = Integer.reverseBytes((int)(ctr3 >>> 32)) ^ rek[1];
+		int d2 = rek[2];
+		int d3 = rek[3];
+		for (int r = 1; r < Nr; r++) {
+			k += 4;
+			int an0 =
+				Te0[(a0 >>> 24)       ] ^
+				Te1[(a1 >>> 16) & 0xff] ^
+				Te2[(a2 >>>  8) & 0xff] ^
+				Te3[(a3       ) & 0xff] ^
+				rek[k    ];
+			int an1 =
+				Te0[(a1 >>> 24)       ] ^
+				Te1[(a2 >>> 16) & 0xff] ^
+				Te2[(a3 >>>  8) & 0xff] ^
+				Te3[(a0       ) & 0xff] ^
+				rek[k + 1];
+			int an2 =
+				Te0[(a2 >>> 24)       ] ^
+				Te1[(a3 >>> 16) & 0xff] ^
+				Te2[(a0 >>>  8) & 0xff] ^
+				Te3[(a1       ) & 0xff] ^
+				rek[k + 2];
+			int an3 =
+				Te0[(a3 >>> 24)       ] ^
+				Te1[(a0 >>> 16) & 0xff] ^
+				Te2[(a1 >>>  8) & 0xff] ^
+				Te3[(a2       ) & 0xff] ^
+				rek[k + 3];
+			int bn0 =
+				Te0[(b0 >>> 24)       ] ^
+				Te1[(b1 >>> 16) & 0xff] ^
+				Te2[(b2 >>>  8) & 0xff] ^
+				Te3[(b3       ) & 0xff] ^
+				rek[k    ];
+			int bn1 =
+				Te0[(b1 >>> 24)       ] ^
+				Te1[(b2 >>> 16) & 0xff] ^
+				Te2[(b3 >>>  8) & 0xff] ^
+				Te3[(b0       ) & 0xff] ^
+				rek[k + 1];
+			int bn2 =
+				Te0[(b2 >>> 24)       ] ^
+				Te1[(b3 >>> 16) & 0xff] ^
+				Te2[(b0 >>>  8) & 0xff] ^
+				Te3[(b1       ) & 0xff] ^
+				rek[k + 2];
+			int bn3 =
+				Te0[(b3 >>> 24)       ] ^
+				Te1[(b0 >>> 16) & 0xff] ^
+				Te2[(b1 >>>  8) & 0xff] ^
+				Te3[(b2       ) & 0xff] ^
+				rek[k + 3];
+			int cn0 =
+				Te0[(c0 >>> 24)       ] ^
+				Te1[(c1 >>> 16) & 0xff] ^
+				Te2[(c2 >>>  8) & 0xff] ^
+				Te3[(c3       ) & 0xff] ^
+				rek[k    ];
+			int cn1 =
+				Te0[(c1 >>> 24)       ] ^
+				Te1[(c2 >>> 16) & 0xff] ^
+				Te2[(c3 >>>  8) & 0xff] ^
+				Te3[(c0       ) & 0xff] ^
+				rek[k + 1];
+			int cn2 =
+				Te0[(c2 >>> 24)       ] ^
+				Te1[(c3 >>> 16) & 0xff] ^
+				Te2[(c0 >>>  8) & 0xff] ^
+				Te3[(c1       ) & 0xff] ^
+				rek[k + 2];
+			int cn3 =
+				Te0[(c3 >>> 24)       ] ^
+				Te1[(c0 >>> 16) & 0xff] ^
+				Te2[(c1 >>>  8) & 0xff] ^
+				Te3[(c2       ) & 0xff] ^
+				rek[k + 3];
+			int dn0 =
+				Te0[(d0 >>> 24)       ] ^
+				Te1[(d1 >>> 16) & 0xff] ^
+				Te2[(d2 >>>  8) & 0xff] ^
+				Te3[(d3       ) & 0xff] ^
+				rek[k    ];
+			int dn1 =
+				Te0[(d1 >>> 24)       ] ^
+				Te1[(d2 >>> 16) & 0xff] ^
+				Te2[(d3 >>>  8) & 0xff] ^
+				Te3[(d0       ) & 0xff] ^
+				rek[k + 1];
+			int dn2 =
+				Te0[(d2 >>> 24)       ] ^
+				Te1[(d3 >>> 16) & 0xff] ^
+				Te2[(d0 >>>  8) & 0xff] ^
+				Te3[(d1       ) & 0xff] ^
+				rek[k + 2];
+			int dn3 =
+				Te0[(d3 >>> 24)       ] ^
+				Te1[(d0 >>> 16) & 0xff] ^
+				Te2[(d1 >>>  8) & 0xff] ^
+				Te3[(d2       ) & 0xff] ^
+				rek[k + 3];
+			a0 = an0; a1 = an1; a2 = an2; a3 = an3;
+			b0 = bn0; b1 = bn1; b2 = bn2; b3 = bn3;
+			c0 = cn0; c1 = cn1; c2 = cn2; c3 = cn3;
+			d0 = dn0; d1 = dn1; d2 = dn2; d3 = dn3;
+		}
+		/*
+		 * last round lacks MixColumn:
+		 */
+		k += 4;
+
+		v = rek[k    ];
+		ct[ctOff     ] = (byte)(Se[(a0 >>> 24)       ] ^ (v >>> 24));
+		ct[ctOff +  1] = (byte)(Se[(a1 >>> 16) & 0xff] ^ (v >>> 16));
+		ct[ctOff +  2] = (byte)(Se[(a2 >>>  8) & 0xff] ^ (v >>>  8));
+		ct[ctOff +  3] = (byte)(Se[(a3       ) & 0xff] ^ (v       ));
+		v = rek[k + 1];
+		ct[ctOff +  4] = (byte)(Se[(a1 >>> 24)       ] ^ (v >>> 24));
+		ct[ctOff +  5] = (byte)(Se[(a2 >>> 16) & 0xff] ^ (v >>> 16));
+		ct[ctOff +  6] = (byte)(Se[(a3 >>>  8) & 0xff] ^ (v >>>  8));
+		ct[ctOff +  7] = (byte)(Se[(a0       ) & 0xff] ^ (v       ));
+		v = rek[k + 2];
+		ct[ctOff +  8] = (byte)(Se[(a2 >>> 24)       ] ^ (v >>> 24));
+		ct[ctOff +  9] = (byte)(Se[(a3 >>> 16) & 0xff] ^ (v >>> 16));
+		ct[ctOff + 10] = (byte)(Se[(a0 >>>  8) & 0xff] ^ (v >>>  8));
+		ct[ctOff + 11] = (byte)(Se[(a1       ) & 0xff] ^ (v       ));
+		v = rek[k + 3];
+		ct[ctOff + 12] = (byte)(Se[(a3 >>> 24)       ] ^ (v >>> 24));
+		ct[ctOff + 13] = (byte)(Se[(a0 >>> 16) & 0xff] ^ (v >>> 16));
+		ct[ctOff + 14] = (byte)(Se[(a1 >>>  8) & 0xff] ^ (v >>>  8));
+		ct[ctOff + 15] = (byte)(Se[(a2       ) & 0xff] ^ (v       ));
+
+		v = rek[k    ];
+		ct[ctOff + 16] = (byte)(Se[(b0 >>> 24)       ] ^ (v >>> 24));
+		ct[ctOff + 17] = (byte)(Se[(b1 >>> 16) & 0xff] ^ (v >>> 16));
+		ct[ctOff + 18] = (byte)(Se[(b2 >>>  8) & 0xff] ^ (v >>>  8));
+		ct[ctOff + 19] = (byte)(Se[(b3       ) & 0xff] ^ (v       ));
+		v = rek[k + 1];
+		ct[ctOff + 20] = (byte)(Se[(b1 >>> 24)       ] ^ (v >>> 24));
+		ct[ctOff + 21] = (byte)(Se[(b2 >>> 16) & 0xff] ^ (v >>> 16));
+		ct[ctOff + 22] = (byte)(Se[(b3 >>>  8) & 0xff] ^ (v >>>  8));
+		ct[ctOff + 23] = (byte)(Se[(b0       ) & 0xff] ^ (v       ));
+		v = rek[k + 2];
+		ct[ctOff + 24] = (byte)(Se[(b2 >>> 24)       ] ^ (v >>> 24));
+		ct[ctOff + 25] = (byte)(Se[(b3 >>> 16) & 0xff] ^ (v >>> 16));
+		ct[ctOff + 26] = (byte)(Se[(b0 >>>  8) & 0xff] ^ (v >>>  8));
+		ct[ctOff + 27] = (byte)(Se[(b1       ) & 0xff] ^ (v       ));
+		v = rek[k + 3];
+		ct[ctOff + 28] = (byte)(Se[(b3 >>> 24)       ] ^ (v >>> 24));
+		ct[ctOff + 29] = (byte)(Se[(b0 >>> 16) & 0xff] ^ (v >>> 16));
+		ct[ctOff + 30] = (byte)(Se[(b1 >>>  8) & 0xff] ^ (v >>>  8));
+		ct[ctOff + 31] = (byte)(Se[(b2       ) & 0xff] ^ (v       ));
+
+		v = rek[k    ];
+		ct[ctOff + 32] = (byte)(Se[(c0 >>> 24)       ] ^ (v >>> 24));
+		ct[ctOff + 33] = (byte)(Se[(c1 >>> 16) & 0xff] ^ (v >>> 16));
+		ct[ctOff + 34] = (byte)(Se[(c2 >>>  8) & 0xff] ^ (v >>>  8));
+		ct[ctOff + 35] = (byte)(Se[(c3       ) & 0xff] ^ (v       ));
+		v = rek[k + 1];
+		ct[ctOff + 36] = (byte)(Se[(c1 >>> 24)       ] ^ (v >>> 24));
+		ct[ctOff + 37] = (byte)(Se[(c2 >>> 16) & 0xff] ^ (v >>> 16));
+		ct[ctOff + 38] = (byte)(Se[(c3 >>>  8) & 0xff] ^ (v >>>  8));
+		ct[ctOff + 39] = (byte)(Se[(c0       ) & 0xff] ^ (v       ));
+		v = rek[k + 2];
+		ct[ctOff + 40] = (byte)(Se[(c2 >>> 24)       ] ^ (v >>> 24));
+		ct[ctOff + 41] = (byte)(Se[(c3 >>> 16) & 0xff] ^ (v >>> 16));
+		ct[ctOff + 42] = (byte)(Se[(c0 >>>  8) & 0xff] ^ (v >>>  8));
+		ct[ctOff + 43] = (byte)(Se[(c1       ) & 0xff] ^ (v       ));
+		v = rek[k + 3];
+		ct[ctOff + 44] = (byte)(Se[(c3 >>> 24)       ] ^ (v >>> 24));
+		ct[ctOff + 45] = (byte)(Se[(c0 >>> 16) & 0xff] ^ (v >>> 16));
+		ct[ctOff + 46] = (byte)(Se[(c1 >>>  8) & 0xff] ^ (v >>>  8));
+		ct[ctOff + 47] = (byte)(Se[(c2       ) & 0xff] ^ (v       ));
+
+		v = rek[k    ];
+		ct[ctOff + 48] = (byte)(Se[(d0 >>> 24)       ] ^ (v >>> 24));
+		ct[ctOff + 49] = (byte)(Se[(d1 >>> 16) & 0xff] ^ (v >>> 16));
+		ct[ctOff + 50] = (byte)(Se[(d2 >>>  8) & 0xff] ^ (v >>>  8));
+		ct[ctOff + 51] = (byte)(Se[(d3       ) & 0xff] ^ (v       ));
+		v = rek[k + 1];
+		ct[ctOff + 52] = (byte)(Se[(d1 >>> 24)       ] ^ (v >>> 24));
+		ct[ctOff + 53] = (byte)(Se[(d2 >>> 16) & 0xff] ^ (v >>> 16));
+		ct[ctOff + 54] = (byte)(Se[(d3 >>>  8) & 0xff] ^ (v >>>  8));
+		ct[ctOff + 55] = (byte)(Se[(d0       ) & 0xff] ^ (v       ));
+		v = rek[k + 2];
+		ct[ctOff + 56] = (byte)(Se[(d2 >>> 24)       ] ^ (v >>> 24));
+		ct[ctOff + 57] = (byte)(Se[(d3 >>> 16) & 0xff] ^ (v >>> 16));
+		ct[ctOff + 58] = (byte)(Se[(d0 >>>  8) & 0xff] ^ (v >>>  8));
+		ct[ctOff + 59] = (byte)(Se[(d1       ) & 0xff] ^ (v       ));
+		v = rek[k + 3];
+		ct[ctOff + 60] = (byte)(Se[(d3 >>> 24)       ] ^ (v >>> 24));
+		ct[ctOff + 61] = (byte)(Se[(d0 >>> 16) & 0xff] ^ (v >>> 16));
+		ct[ctOff + 62] = (byte)(Se[(d1 >>>  8) & 0xff] ^ (v >>>  8));
+		ct[ctOff + 63] = (byte)(Se[(d2       ) & 0xff] ^ (v       ));
 	}
 
 	/**
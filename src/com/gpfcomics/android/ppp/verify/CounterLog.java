@@ -0,0 +1,226 @@
+/**
+ * @(#)CounterLog.java
+ *
+ * An append-only log of counter changes.  Most entries are advances, saying
+ * that a user's next expected counter has moved forward to a given value: the
+ * shard that owns a user appends one every time it accepts one of their
+ * passcodes.  When a user is registered, or registered again with a new key
+ * or a reset counter, the shard appends a reset instead, which starts a new
+ * epoch for that user.  A follower rebuilds the shard's counters by applying
+ * the log to a CounterStore; for each user only their last reset and the
+ * advances after it count.  Advances within an epoch only move forward, so
+ * applying them in log order gives the same counters however appends from
+ * different threads were interleaved.
+ *
+ * The log is always held in memory.  It can also be mirrored to a local file,
+ * appending one record per entry (the user id as modified UTF-8, a boolean
+ * that is true for a reset, then the counter as a long); opening an existing
+ * file loads its entries first, so a follower in a new process can pick up
+ * where the old one left off.
+ *
+ * Left alone the log grows with every login.  compact() replaces everything
+ * in it with a snapshot, one reset per user at the counter they had got to,
+ * and rewrites the file to match.  Sequence numbers carry on from where they
+ * were, so a follower applying from its last position picks the snapshot up
+ * as a run of resets, which leave its counters just as they were.
+ */
+
+package com.gpfcomics.android.ppp.verify;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+public class CounterLog {
+
+	private ArrayList<String> userIds = new ArrayList<String>();
+	private long[] counters = new long[64];
+	/* Positions in userIds and counters of the entries that are resets */
+	private BitSet resets = new BitSet();
+	/* Sequence number of the first entry held, moved on by compact() */
+	private long firstSeq = 0;
+	/* Mirror file and its stream, or null for a memory-only log */
+	private final File file;
+	private DataOutputStream out;
+
+	/**
+	 * Create an empty memory-only log
+	 */
+	public CounterLog() {
+		file = null;
+		out = null;
+	}
+
+	/**
+	 * Open a log mirrored to a file, loading any entries already in it.  A
+	 * record cut short by a crash at the end of the file is ignored.
+	 */
+	public CounterLog(File file) throws IOException {
+		this.file = file;
+		if ( file.exists() ) {
+			DataInputStream in = new DataInputStream( new BufferedInputStream(
+				new FileInputStream( file ) ) );
+			try {
+				while ( true ) {
+					String userId = in.readUTF();
+					boolean reset = in.readBoolean();
+					add( userId, in.readLong(), reset );
+				}
+			} catch ( EOFException e ) {
+				// End of the log
+			} finally {
+				in.close();
+			}
+		}
+		out = new DataOutputStream( new BufferedOutputStream(
+			new FileOutputStream( file, true ) ) );
+	}
+
+	/**
+	 * Record that a user's next expected counter has moved forward to
+	 * nextCounter
+	 * @return the entry's sequence number, counting from 0
+	 */
+	public long append(String userId, long nextCounter) {
+		return write( userId, nextCounter, false );
+	}
+
+	/**
+	 * Record that a user has been registered with nextCounter as their next
+	 * expected counter, which may be behind where their last registration
+	 * had got to.  Earlier entries for the user no longer count.
+	 * @return the entry's sequence number, counting from 0
+	 */
+	public long reset(String userId, long nextCounter) {
+		return write( userId, nextCounter, true );
+	}
+
+	/**
+	 * How many entries the log holds, which after compact() is fewer than
+	 * have been appended
+	 */
+	public synchronized long size() {
+		return userIds.size();
+	}
+
+	/**
+	 * Replace every entry with a snapshot: one reset per user, at the counter
+	 * their last reset and the advances after it had got them to.  The
+	 * snapshot's sequence numbers follow on from the last entry's.  A mirror
+	 * file is rewritten alongside and swapped in for the old one.
+	 * @return how many entries the log now holds
+	 */
+	public synchronized long compact() {
+		LinkedHashMap<String, Long> latest = new LinkedHashMap<String, Long>();
+		int size = userIds.size();
+		for ( int i = 0; i < size; ++i ) {
+			String userId = userIds.get( i );
+			Long current = latest.get( userId );
+			if ( resets.get( i ) || current == null || current.longValue() < counters[i] ) {
+				latest.put( userId, Long.valueOf( counters[i] ) );
+			}
+		}
+		if ( file != null ) {
+			File compacted = new File( file.getPath() + ".compact" );
+			try {
+				DataOutputStream snapshot = new DataOutputStream( new BufferedOutputStream(
+					new FileOutputStream( compacted ) ) );
+				try {
+					for ( Map.Entry<String, Long> entry : latest.entrySet() ) {
+						writeRecord( snapshot, entry.getKey(), entry.getValue().longValue(), true );
+					}
+				} finally {
+					snapshot.close();
+				}
+				out.close();
+				if ( !compacted.renameTo( file ) ) {
+					// Some platforms won't rename over an existing file
+					if ( !file.delete() || !compacted.renameTo( file ) ) {
+						throw new IOException("Can't replace " + file);
+					}
+				}
+				out = new DataOutputStream( new BufferedOutputStream(
+					new FileOutputStream( file, true ) ) );
+			} catch ( IOException e ) {
+				throw new IllegalStateException("Can't compact counter log: " + e.getMessage());
+			}
+		}
+		firstSeq += size;
+		userIds = new ArrayList<String>( Math.max( 16, latest.size() * 2 ) );
+		counters = new long[Math.max( 64, latest.size() * 2 )];
+		resets = new BitSet();
+		for ( Map.Entry<String, Long> entry : latest.entrySet() ) {
+			add( entry.getKey(), entry.getValue().longValue(), true );
+		}
+		return userIds.size();
+	}
+
+	/**
+	 * Apply the entries from a sequence number on to a follower's counters.
+	 * A reset sets the user's counter outright, and advances only move it
+	 * forward from there.
+	 * @param store the follower's counters
+	 * @param fromSeq sequence number of the first entry to apply
+	 * @return the sequence number to apply from next time
+	 */
+	public synchronized long applyTo(CounterStore store, long fromSeq) {
+		int size = userIds.size();
+		// Entries compacted away are covered by the snapshot's resets:
+		for ( int i = (int)Math.max( 0, fromSeq - firstSeq ); i < size; ++i ) {
+			if ( resets.get( i ) ) {
+				store.set( userIds.get( i ), counters[i] );
+			} else {
+				store.advanceTo( userIds.get( i ), counters[i] );
+			}
+		}
+		return Math.max( fromSeq, firstSeq + size );
+	}
+
+	public synchronized void close() throws IOException {
+		if ( out != null ) {
+			out.close();
+		}
+	}
+
+	private synchronized long write(String userId, long nextCounter, boolean reset) {
+		if ( out != null ) {
+			try {
+				writeRecord( out, userId, nextCounter, reset );
+				out.flush();
+			} catch ( IOException e ) {
+				throw new IllegalStateException("Can't write counter log: " + e.getMessage());
+			}
+		}
+		return add( userId, nextCounter, reset );
+	}
+
+	private static void writeRecord(DataOutputStream out, String userId, long nextCounter,
+			boolean reset) throws IOException {
+		out.writeUTF( userId );
+		out.writeBoolean( reset );
+		out.writeLong( nextCounter );
+	}
+
+	private long add(String userId, long nextCounter, boolean reset) {
+		int index = userIds.size();
+		if ( index == counters.length ) {
+			long[] grown = new long[index * 2];
+			System.arraycopy( counters, 0, grown, 0, index );
+			counters = grown;
+		}
+		userIds.add( userId );
+		counters[index] = nextCounter;
+		if ( reset ) {
+			resets.set( index );
+		}
+		return firstSeq + index;
+	}
+}
@@ -0,0 +1,106 @@
+/**
+ * @(#)CounterStore.java
+ *
+ * Each user's next expected counter, shared by every thread verifying
+ * passcodes.  Counters only ever move forward, and only by compare-and-set,
+ * so there is no lock for concurrent logins to queue on: of two logins that
+ * both try to spend the same passcode, exactly one moves the counter past it
+ * and the other sees that the counter has changed.
+ */
+
+package com.gpfcomics.android.ppp.verify;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+public class CounterStore {
+
+	/** Returned by get() for users with no counter */
+	public static final long NO_COUNTER = -1L;
+
+	private final ConcurrentHashMap<String, AtomicLong> counters;
+
+	public CounterStore() {
+		counters = new ConcurrentHashMap<String, AtomicLong>();
+	}
+
+	/**
+	 * @param expectedUsers roughly how many users the store will hold, so the
+	 * map can be sized up front
+	 */
+	public CounterStore(int expectedUsers) {
+		counters = new ConcurrentHashMap<String, AtomicLong>( expectedUsers );
+	}
+
+	/**
+	 * Set a user's next expected counter, adding the user if need be.  Unlike
+	 * consume(), this can move the counter backwards.
+	 */
+	public void set(String userId, long nextCounter) {
+		if ( nextCounter < 0 ) {
+			throw new IllegalArgumentException("Counter must not be negative");
+		}
+		AtomicLong counter = counters.get( userId );
+		if ( counter == null ) {
+			counter = counters.putIfAbsent( userId, new AtomicLong( nextCounter ) );
+			if ( counter == null ) {
+				return;
+			}
+		}
+		counter.set( nextCounter );
+	}
+
+	/**
+	 * Move a user's counter forward to nextCounter, adding the user if need
+	 * be.  A counter already at or past nextCounter is left alone, so
+	 * replaying advances out of order never moves a counter backwards.
+	 */
+	public void advanceTo(String userId, long nextCounter) {
+		if ( nextCounter < 0 ) {
+			throw new IllegalArgumentException("Counter must not be negative");
+		}
+		AtomicLong counter = counters.get( userId );
+		if ( counter == null ) {
+			counter = counters.putIfAbsent( userId, new AtomicLong( nextCounter ) );
+			if ( counter == null ) {
+				return;
+			}
+		}
+		long current;
+		do {
+			current = counter.get();
+		} while ( current < nextCounter && !counter.compareAndSet( current, nextCounter ) );
+	}
+
+	/**
+	 * A user's next expected counter, or NO_COUNTER if the user has none
+	 */
+	public long get(String userId) {
+		AtomicLong counter = counters.get( userId );
+		return counter == null ? NO_COUNTER : counter.get();
+	}
+
+	/**
+	 * Spend a passcode: move a user's counter from expectedNext to just past
+	 * used, provided nobody else has moved it since expectedNext was read.
+	 * Each counter value can be spent at most once.
+	 * @param userId user id
+	 * @param expectedNext the next counter as the caller last saw it
+	 * @param used counter of the passcode being spent, at least expectedNext
+	 * @return true if the passcode was spent, false if the counter had moved
+	 * or the user has no counter
+	 */
+	public boolean consume(String userId, long expectedNext, long used) {
+		if ( used < expectedNext || used == Long.MAX_VALUE ) {
+			throw new IllegalArgumentException("Passcode is before the next expected counter");
+		}
+		AtomicLong counter = counters.get( userId );
+		return counter != null && counter.compareAndSet( expectedNext, used + 1 );
+	}
+
+	public void remove(String userId) {
+		counters.remove( userId );
+	}
+
+	public int size() {
+		return counters.size();
+	}
+}
@@ -0,0 +1,357 @@
+/**
+ * @(#)PasscodeVerifier.java
+ *
+ * The server side of PPP: checks the passcodes users type against their
+ * sequence keys.  Each user has a "next expected counter".  A submitted
+ * passcode is accepted if it matches one of the next window passcodes from
+ * that counter on, after which the counter moves past the passcode used, so
+ * no passcode can be used twice and any skipped ones are given up.
+ *
+ * Windows are checked through a WindowCache, which keeps the expanded key
+ * and upcoming passcodes of recently active users and compares in place, so
+ * a verification for a cached user only generates the passcodes that have
+ * come into the window since the last one.  Counters live in a CounterStore
+ * and only move by compare-and-set, so logins for different users never wait
+ * on each other and two logins can never both spend the same passcode.
+ */
+
+package com.gpfcomics.android.ppp.verify;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.gpfcomics.android.ppp.jppp.Hex;
+import com.gpfcomics.android.ppp.jppp.PPPconfig;
+public class PasscodeVerifier {
+
+	/** Returned by verify() when the passcode is not accepted */
+	public static final long NO_MATCH = -1L;
+
+	/** How many users' windows are cached unless told otherwise */
+	public static final int DEFAULT_CACHED_USERS = 1024;
+
+	private final int window;
+	private final WindowCache cache;
+	private final CounterStore counters;
+	private final ConcurrentHashMap<String, User> users = new ConcurrentHashMap<String, User>();
+
+	/**
+	 * @param window how many passcodes from the next expected one on to accept
+	 */
+	public PasscodeVerifier(int window) {
+		this(window, DEFAULT_CACHED_USERS);
+	}
+
+	/**
+	 * @param window how many passcodes from the next expected one on to accept
+	 * @param cachedUsers the most users to keep windows cached for
+	 */
+	public PasscodeVerifier(int window, int cachedUsers) {
+		this(window, cachedUsers, new CounterStore());
+	}
+
+	/**
+	 * @param window how many passcodes from the next expected one on to accept
+	 * @param cachedUsers the most users to keep windows cached for
+	 * @param counters where to keep each user's next expected counter
+	 */
+	public PasscodeVerifier(int window, int cachedUsers, CounterStore counters) {
+		if ( window < 1 ) {
+			throw new IllegalArgumentException("Window must be positive");
+		}
+		if ( counters == null ) {
+			throw new IllegalArgumentException("Counter store is required");
+		}
+		this.window = window;
+		this.counters = counters;
+		cache = new WindowCache( cachedUsers );
+	}
+
+	public int getWindow() {
+		return window;
+	}
+
+	/**
+	 * The window cache, for its hit, miss and eviction counts
+	 */
+	public WindowCache getCache() {
+		return cache;
+	}
+
+	public CounterStore getCounterStore() {
+		return counters;
+	}
+
+	/**
+	 * Start verifying passcodes for a user, replacing any existing
+	 * registration for the same id.
+	 * @param userId user id
+	 * @param config the user's card parameters
+	 * @param sequenceKey the user's 64 hex digit sequence key
+	 * @param nextCounter counter of the first passcode to expect
+	 */
+	public void register(String userId, PPPconfig config, String sequenceKey, long nextCounter) {
+		checkRegistration( userId, config, nextCounter );
+		publish( userId, config, keyToBytes( sequenceKey ), nextCounter );
+	}
+
+	/**
+	 * Start verifying passcodes for a user, with the sequence key as raw
+	 * bytes.  The key is copied, so the caller can wipe its own array.
+	 * @param sequenceKey the user's 32-byte sequence key
+	 * @see #register(String, PPPconfig, String, long)
+	 */
+	public void register(String userId, PPPconfig config, byte[] sequenceKey, long nextCounter) {
+		checkRegistration( userId, config, nextCounter );
+		if ( sequenceKey == null || sequenceKey.length != 32 ) {
+			throw new IllegalArgumentException("Sequence key length incorrect");
+		}
+		publish( userId, config, sequenceKey.clone(), nextCounter );
+	}
+
+	/**
+	 * Stop verifying passcodes for a user, wiping their key
+	 */
+	public void unregister(String userId) {
+		User old = users.remove( userId );
+		counters.remove( userId );
+		cache.invalidate( userId );
+		if ( old != null ) {
+			old.wipe();
+		}
+	}
+
+	/**
+	 * A user's card parameters, or null if the user is not registered
+	 */
+	public PPPconfig getConfig(String userId) {
+		User user = users.get( userId );
+		return user == null ? null : user.config;
+	}
+
+	/**
+	 * The counter of the next passcode expected from a user, or NO_MATCH if
+	 * the user is not registered
+	 */
+	public long getNextCounter(String userId) {
+		return users.containsKey( userId ) ? counters.get( userId ) : NO_MATCH;
+	}
+
+	/**
+	 * Check a passcode typed by a user.  If it matches one within the window,
+	 * the user's next expected counter moves to just after it.
+	 * @param userId user id
+	 * @param passcode the passcode as typed
+	 * @return the counter of the matching passcode, or NO_MATCH if the user is
+	 * unknown or the passcode doesn't match any in the window
+	 */
+	public long verify(String userId, CharSequence passcode) {
+		User user = users.get( userId );
+		if ( user == null || passcode == null ) {
+			return NO_MATCH;
+		}
+		if ( passcode.length() != user.config.getPasscodeLength() ) {
+			return NO_MATCH;
+		}
+		while ( true ) {
+			byte[] key = user.key;
+			long next = counters.get( userId );
+			if ( key == null || next == CounterStore.NO_COUNTER ) {
+				// Unregistered while we were looking
+				return NO_MATCH;
+			}
+			int count = (int)Math.min( window, Long.MAX_VALUE - 1 - next );
+			int match = cache.find( userId, user.config, key, next, count, passcode );
+			if ( users.get( userId ) != user ) {
+				// Registered again or unregistered while we were checking, so
+				// the window came from a key that no longer counts: don't
+				// leave it cached or spend a passcode from the new counter
+				cache.invalidate( userId, key );
+				return NO_MATCH;
+			}
+			if ( match < 0 ) {
+				// If another login moved the window while we were checking,
+				// the passcode may be in the new one:
+				if ( counters.get( userId ) == next ) {
+					return NO_MATCH;
+				}
+			} else if ( counters.consume( userId, next, next + match ) ) {
+				return next + match;
+			}
+			// Another login got in first; check again from where it left
+			// the counter.
+		}
+	}
+
+	/**
+	 * Check a batch of passcodes, such as a gateway collects.  Submissions are
+	 * grouped by user, so each user's key and window are looked up once and
+	 * the window then slides along as the group's passcodes are accepted.
+	 * Within a group passcodes are checked in input order, exactly as if
+	 * verify() were called for each in turn; the groups are shared out among
+	 * the executor's threads a whole group at a time.
+	 * @param userIds user id of each submission
+	 * @param passcodes passcode of each submission
+	 * @param executor executor to check the groups on
+	 * @param parallelism how many threads to use
+	 * @return for each submission, in input order, what verify() would return
+	 * @throws InterruptedException if interrupted while waiting for the
+	 * threads; they are cancelled
+	 */
+	public long[] verifyAll(final String[] userIds, final CharSequence[] passcodes,
+			ExecutorService executor, int parallelism) throws InterruptedException {
+		if ( userIds.length != passcodes.length ) {
+			throw new IllegalArgumentException("Every submission needs a user and a passcode");
+		}
+		if ( parallelism < 1 ) {
+			throw new IllegalArgumentException("Parallelism must be positive");
+		}
+		final long[] results = new long[userIds.length];
+		// Each group lists the indexes of one user's submissions, in order:
+		Map<String, List<Integer>> byUser = new LinkedHashMap<String, List<Integer>>();
+		for ( int i = 0; i < userIds.length; ++i ) {
+			List<Integer> group = byUser.get( userIds[i] );
+			if ( group == null ) {
+				group = new ArrayList<Integer>();
+				byUser.put( userIds[i], group );
+			}
+			group.add( Integer.valueOf( i ) );
+		}
+		final List<List<Integer>> groups = new ArrayList<List<Integer>>( byUser.values() );
+		final AtomicInteger nextGroup = new AtomicInteger( 0 );
+		int workers = Math.min( parallelism, groups.size() );
+		if ( workers <= 1 ) {
+			checkGroups( groups, nextGroup, userIds, passcodes, results );
+			return results;
+		}
+		List<Future<?>> futures = new ArrayList<Future<?>>( workers );
+		try {
+			for ( int w = 0; w < workers; ++w ) {
+				futures.add( executor.submit( new Callable<Void>() {
+					public Void call() {
+						checkGroups( groups, nextGroup, userIds, passcodes, results );
+						return null;
+					}
+				} ) );
+			}
+			for ( Future<?> future : futures ) {
+				future.get();
+			}
+		} catch ( ExecutionException e ) {
+			Throwable cause = e.getCause();
+			if ( cause instanceof RuntimeException ) {
+				throw (RuntimeException)cause;
+			}
+			if ( cause instanceof Error ) {
+				throw (Error)cause;
+			}
+			throw new IllegalStateException(String.valueOf( cause ));
+		} finally {
+			for ( Future<?> future : futures ) {
+				future.cancel( true );
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Take groups from the shared list until there are none left, checking
+	 * each group's submissions in order.
+	 */
+	private void checkGroups(List<List<Integer>> groups, AtomicInteger nextGroup,
+			String[] userIds, CharSequence[] passcodes, long[] results) {
+		int g;
+		while ( ( g = nextGroup.getAndIncrement() ) < groups.size() ) {
+			for ( Integer index : groups.get( g ) ) {
+				int i = index.intValue();
+				results[i] = verify( userIds[i], passcodes[i] );
+			}
+		}
+	}
+
+	private static void checkRegistration(String userId, PPPconfig config, long nextCounter) {
+		if ( userId == null ) {
+			throw new IllegalArgumentException("User id is required");
+		}
+		if ( nextCounter < 0 ) {
+			throw new IllegalArgumentException("Counter must not be negative");
+		}
+		if ( config == null ) {
+			throw new IllegalArgumentException("Card parameters are required");
+		}
+	}
+
+	/**
+	 * Put a registration in place.  The key array becomes the user's own and
+	 * is wiped when they are registered again or unregistered.
+	 */
+	private void publish(String userId, PPPconfig config, byte[] key, long nextCounter) {
+		// Take the old counter away before the new user goes in.  Otherwise a
+		// login could check the new key against the old counter and spend a
+		// passcode that the new counter, once set, would accept again.  In
+		// between, logins see no counter and are turned away.
+		counters.remove( userId );
+		User old = users.put( userId, new User( config, key ) );
+		counters.set( userId, nextCounter );
+		cache.invalidate( userId );
+		if ( old != null ) {
+			old.wipe();
+		}
+	}
+
+	/**
+	 * Index of the first passcode in chars, from index from on, equal to
+	 * passcode, or -1
+	 */
+	static int find(char[] chars, int from, int count, int length, CharSequence passcode) {
+		for ( int i = from, off = from * length; i < count; ++i, off += length ) {
+			int j = 0;
+			while ( j < length && chars[off + j] == passcode.charAt( j ) ) {
+				++j;
+			}
+			if ( j == length ) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	static byte[] keyToBytes(String sequenceKey) {
+		if ( sequenceKey == null || sequenceKey.length() != 64 ) {
+			throw new IllegalArgumentException("Sequence key length incorrect");
+		}
+		byte[] key = new byte[32];
+		try {
+			Hex.decode( sequenceKey, 0, 64, key, 0 );
+		} catch ( IllegalArgumentException e ) {
+			throw new IllegalArgumentException("Bad sequence key");
+		}
+		return key;
+	}
+
+	private static final class User {
+		final PPPconfig config;
+		/* The raw sequence key, kept as bytes so it can be wiped; null once
+		 * the user has been unregistered */
+		volatile byte[] key;
+
+		User(PPPconfig config, byte[] key) {
+			this.config = config;
+			this.key = key;
+		}
+
+		void wipe() {
+			byte[] old = key;
+			key = null;
+			Arrays.fill( old, (byte)0 );
+		}
+	}
+}
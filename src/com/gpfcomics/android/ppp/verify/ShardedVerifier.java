@@ -0,0 +1,344 @@
+/**
+ * @(#)ShardedVerifier.java
+ *
+ * Spreads verification over several nodes, all simulated in one process.
+ * Users are assigned to nodes by consistent hashing: each node takes a number
+ * of points on a hash ring and owns the users that hash up to each point, so
+ * adding or removing a node only moves the users next to its points.
+ *
+ * Each node runs its own PasscodeVerifier and counters, and appends every
+ * counter advance to its own CounterLog before the passcode is reported as
+ * accepted; registering a user appends a reset, so a new key or a counter set
+ * back is replayed as such.  When a node is removed, whether it shut down
+ * cleanly or not, its counters are rebuilt from its log and its users handed
+ * to their new owners from there, so a passcode accepted before the failure
+ * can't be accepted again after it.  The removed node's keys and cached
+ * windows are then wiped, and its log cut down to a snapshot of where each
+ * of its users had got to.
+ *
+ * Sequence keys are held as bytes, never as strings, so that they can be
+ * wiped: a user's key is zeroed when they are unregistered or registered
+ * again with another.
+ *
+ * Verifications run concurrently with each other; registering users and
+ * adding and removing nodes wait for verifications in progress to finish and
+ * hold new ones off until they are done, so a user's reset never lands in
+ * the log among advances from their previous registration.
+ */
+
+package com.gpfcomics.android.ppp.verify;
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.gpfcomics.android.ppp.jppp.PPPconfig;
+public class ShardedVerifier {
+
+	/* Ring points per node; more points spread users more evenly */
+	private static final int POINTS_PER_NODE = 64;
+
+	private final int window;
+	private final int cachedUsers;
+	private final TreeMap<Integer, Node> ring = new TreeMap<Integer, Node>();
+	private final Map<String, Node> nodes = new LinkedHashMap<String, Node>();
+	/* Everything needed to register a user again on a new owner */
+	private final ConcurrentHashMap<String, Registration> users =
+		new ConcurrentHashMap<String, Registration>();
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	/**
+	 * @param window how many passcodes from the next expected one on to accept
+	 * @param cachedUsers the most users each node keeps windows cached for
+	 */
+	public ShardedVerifier(int window, int cachedUsers) {
+		if ( window < 1 || cachedUsers < 1 ) {
+			throw new IllegalArgumentException("Window and cache size must be positive");
+		}
+		this.window = window;
+		this.cachedUsers = cachedUsers;
+	}
+
+	/**
+	 * Add a node with a memory-only counter log
+	 */
+	public void addNode(String name) {
+		addNode( name, new CounterLog() );
+	}
+
+	/**
+	 * Add a node whose counter log is mirrored to a local file
+	 */
+	public void addNode(String name, File logFile) throws IOException {
+		addNode( name, new CounterLog( logFile ) );
+	}
+
+	/**
+	 * Remove a node, handing its users to the nodes that now own them.  Their
+	 * counters come from the node's log, not the node itself, so this is
+	 * also how a failed node is replaced.
+	 */
+	public void removeNode(String name) {
+		lock.writeLock().lock();
+		try {
+			Node node = nodes.remove( name );
+			if ( node == null ) {
+				throw new IllegalArgumentException("No node named " + name);
+			}
+			if ( nodes.isEmpty() ) {
+				nodes.put( name, node );
+				throw new IllegalStateException("Can't remove the last node");
+			}
+			List<String> moving = new ArrayList<String>();
+			for ( String userId : users.keySet() ) {
+				if ( ownerOf( userId ) == node ) {
+					moving.add( userId );
+				}
+			}
+			for ( int i = 0; i < POINTS_PER_NODE; ++i ) {
+				Integer point = Integer.valueOf( point( name, i ) );
+				// Leave the point alone if it collided with another node's
+				if ( ring.get( point ) == node ) {
+					ring.remove( point );
+				}
+			}
+			// Cut the log down to one reset per user, then replay it as a
+			// follower would:
+			CounterStore recovered = new CounterStore( moving.size() + 1 );
+			node.log.compact();
+			node.log.applyTo( recovered, 0 );
+			for ( String userId : moving ) {
+				move( userId, ownerOf( userId ), recovered.get( userId ) );
+				node.verifier.unregister( userId );
+			}
+			try {
+				node.log.close();
+			} catch ( IOException e ) {
+				// The log is finished with either way
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Start verifying passcodes for a user on whichever node owns them.
+	 * @see PasscodeVerifier#register(String, PPPconfig, String, long)
+	 */
+	public void register(String userId, PPPconfig config, String sequenceKey, long nextCounter) {
+		byte[] key = PasscodeVerifier.keyToBytes( sequenceKey );
+		lock.writeLock().lock();
+		try {
+			Node owner = requireOwner( userId );
+			owner.verifier.register( userId, config, key, nextCounter );
+			owner.log.reset( userId, nextCounter );
+			Registration old = users.put( userId, new Registration( config, key ) );
+			if ( old != null ) {
+				old.wipe();
+			}
+		} catch ( RuntimeException e ) {
+			Arrays.fill( key, (byte)0 );
+			throw e;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Stop verifying passcodes for a user
+	 */
+	public void unregister(String userId) {
+		lock.readLock().lock();
+		try {
+			Registration old = users.remove( userId );
+			if ( old != null ) {
+				requireOwner( userId ).verifier.unregister( userId );
+				old.wipe();
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Check a passcode on the user's node, logging the advance if it is
+	 * accepted.
+	 * @see PasscodeVerifier#verify(String, CharSequence)
+	 */
+	public long verify(String userId, CharSequence passcode) {
+		lock.readLock().lock();
+		try {
+			if ( !users.containsKey( userId ) ) {
+				return PasscodeVerifier.NO_MATCH;
+			}
+			Node owner = requireOwner( userId );
+			long counter = owner.verifier.verify( userId, passcode );
+			if ( counter != PasscodeVerifier.NO_MATCH ) {
+				owner.log.append( userId, counter + 1 );
+			}
+			return counter;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * The user's next expected counter, from their current owner
+	 */
+	public long getNextCounter(String userId) {
+		lock.readLock().lock();
+		try {
+			if ( !users.containsKey( userId ) ) {
+				return PasscodeVerifier.NO_MATCH;
+			}
+			return requireOwner( userId ).verifier.getNextCounter( userId );
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Name of the node that owns a user
+	 */
+	public String getOwner(String userId) {
+		lock.readLock().lock();
+		try {
+			return requireOwner( userId ).name;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	public List<String> getNodeNames() {
+		lock.readLock().lock();
+		try {
+			return new ArrayList<String>( nodes.keySet() );
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private void addNode(String name, CounterLog log) {
+		lock.writeLock().lock();
+		try {
+			if ( nodes.containsKey( name ) ) {
+				throw new IllegalArgumentException("There is already a node named " + name);
+			}
+			Node node = new Node( name, new PasscodeVerifier( window, cachedUsers ), log );
+			// Note each user's owner before the ring changes:
+			Map<String, Node> before = new LinkedHashMap<String, Node>();
+			for ( String userId : users.keySet() ) {
+				before.put( userId, ownerOf( userId ) );
+			}
+			nodes.put( name, node );
+			for ( int i = 0; i < POINTS_PER_NODE; ++i ) {
+				ring.put( Integer.valueOf( point( name, i ) ), node );
+			}
+			// Only users whose points now fall to the new node move:
+			for ( Map.Entry<String, Node> entry : before.entrySet() ) {
+				String userId = entry.getKey();
+				Node old = entry.getValue();
+				if ( ownerOf( userId ) == node ) {
+					move( userId, node, old.verifier.getNextCounter( userId ) );
+					old.verifier.unregister( userId );
+				}
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Register a user on their new owner at the given counter, and log it
+	 * there as a reset so the new owner's followers know it too.
+	 */
+	private void move(String userId, Node to, long nextCounter) {
+		Registration user = users.get( userId );
+		to.verifier.register( userId, user.config, user.sequenceKey, nextCounter );
+		to.log.reset( userId, nextCounter );
+	}
+
+	private Node requireOwner(String userId) {
+		Node owner = ownerOf( userId );
+		if ( owner == null ) {
+			throw new IllegalStateException("No verification nodes");
+		}
+		return owner;
+	}
+
+	/**
+	 * The node owning the first ring point at or after the user's hash,
+	 * wrapping round to the start of the ring.
+	 */
+	private Node ownerOf(String userId) {
+		if ( ring.isEmpty() ) {
+			return null;
+		}
+		SortedMap<Integer, Node> tail = ring.tailMap( Integer.valueOf( hash( userId ) ) );
+		return tail.isEmpty() ? ring.get( ring.firstKey() ) : tail.get( tail.firstKey() );
+	}
+
+	private static int point(String node, int i) {
+		return hash( node + "#" + i );
+	}
+
+	/**
+	 * 32-bit FNV-1a over the UTF-8 bytes, with a final mix so that similar
+	 * names still spread around the ring.  It must not change, or users would
+	 * move between nodes from one version to the next.
+	 */
+	private static int hash(String s) {
+		byte[] bytes;
+		try {
+			bytes = s.getBytes( "UTF-8" );
+		} catch ( UnsupportedEncodingException e ) {
+			throw new IllegalStateException(e.toString());
+		}
+		int h = 0x811c9dc5;
+		for ( int i = 0; i < bytes.length; ++i ) {
+			h ^= bytes[i] & 0xFF;
+			h *= 0x01000193;
+		}
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		return h;
+	}
+
+	private static final class Node {
+		final String name;
+		final PasscodeVerifier verifier;
+		final CounterLog log;
+
+		Node(String name, PasscodeVerifier verifier, CounterLog log) {
+			this.name = name;
+			this.verifier = verifier;
+			this.log = log;
+		}
+	}
+
+	private static final class Registration {
+		final PPPconfig config;
+		/* The raw sequence key, handed to each new owner's verifier, which
+		 * takes its own copy */
+		final byte[] sequenceKey;
+
+		Registration(PPPconfig config, byte[] sequenceKey) {
+			this.config = config;
+			this.sequenceKey = sequenceKey;
+		}
+
+		void wipe() {
+			Arrays.fill( sequenceKey, (byte)0 );
+		}
+	}
+}
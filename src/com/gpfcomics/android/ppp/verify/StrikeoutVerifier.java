@@ -0,0 +1,174 @@
+/**
+ * @(#)StrikeoutVerifier.java
+ *
+ * A verifier for users who don't always use their passcodes in order, such
+ * as using C3 before B3 on a printed card.  Instead of a single next expected
+ * counter, each user has a StrikeoutWindow: any unused passcode within the
+ * window is accepted and struck out, passcodes skipped over stay usable until
+ * the window moves past them, and a replayed passcode is rejected by a single
+ * bit test.  The window always reaches at least one passcode past the last
+ * one accepted, giving up the oldest skipped passcodes if need be, so a user
+ * carrying on in order is never locked out by one they skipped.  Memory is
+ * one bit per window slot per user, plus the cached passcodes of recently
+ * active users in the shared WindowCache.
+ */
+
+package com.gpfcomics.android.ppp.verify;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.gpfcomics.android.ppp.jppp.PPPconfig;
+public class StrikeoutVerifier {
+
+	private final int window;
+	private final WindowCache cache;
+	private final ConcurrentHashMap<String, User> users = new ConcurrentHashMap<String, User>();
+
+	/**
+	 * @param window how many passcodes from the lowest unused one on to accept
+	 * @param cachedUsers the most users to keep windows cached for
+	 */
+	public StrikeoutVerifier(int window, int cachedUsers) {
+		if ( window < 1 ) {
+			throw new IllegalArgumentException("Window must be positive");
+		}
+		this.window = window;
+		cache = new WindowCache( cachedUsers );
+	}
+
+	public int getWindow() {
+		return window;
+	}
+
+	/**
+	 * The window cache, for its hit, miss and eviction counts
+	 */
+	public WindowCache getCache() {
+		return cache;
+	}
+
+	/**
+	 * Start verifying passcodes for a user, replacing any existing
+	 * registration for the same id.
+	 * @param userId user id
+	 * @param config the user's card parameters
+	 * @param sequenceKey the user's 64 hex digit sequence key
+	 * @param firstCounter counter of the lowest passcode not yet used
+	 */
+	public void register(String userId, PPPconfig config, String sequenceKey, long firstCounter) {
+		if ( userId == null ) {
+			throw new IllegalArgumentException("User id is required");
+		}
+		if ( config == null ) {
+			throw new IllegalArgumentException("Card parameters are required");
+		}
+		User user = new User( config, PasscodeVerifier.keyToBytes( sequenceKey ),
+			new StrikeoutWindow( firstCounter, window ) );
+		User old = users.put( userId, user );
+		cache.invalidate( userId );
+		if ( old != null ) {
+			old.wipe();
+		}
+	}
+
+	/**
+	 * Stop verifying passcodes for a user, wiping their key
+	 */
+	public void unregister(String userId) {
+		User old = users.remove( userId );
+		cache.invalidate( userId );
+		if ( old != null ) {
+			old.wipe();
+		}
+	}
+
+	/**
+	 * Whether a user's passcode has been used, or false if the user is not
+	 * registered
+	 */
+	public boolean isUsed(String userId, long counter) {
+		User user = users.get( userId );
+		if ( user == null ) {
+			return false;
+		}
+		synchronized ( user ) {
+			return user.used.isUsed( counter );
+		}
+	}
+
+	/**
+	 * The counter of the lowest passcode a user has not used, or
+	 * PasscodeVerifier.NO_MATCH if the user is not registered
+	 */
+	public long getFirstUnused(String userId) {
+		User user = users.get( userId );
+		if ( user == null ) {
+			return PasscodeVerifier.NO_MATCH;
+		}
+		synchronized ( user ) {
+			return user.used.getBase();
+		}
+	}
+
+	/**
+	 * Check a passcode typed by a user.  If it matches an unused passcode
+	 * within the window it is struck out.
+	 * @param userId user id
+	 * @param passcode the passcode as typed
+	 * @return the counter of the matching passcode, or
+	 * PasscodeVerifier.NO_MATCH if the user is unknown or the passcode doesn't
+	 * match any unused one in the window
+	 */
+	public long verify(String userId, CharSequence passcode) {
+		User user = users.get( userId );
+		if ( user == null || passcode == null ) {
+			return PasscodeVerifier.NO_MATCH;
+		}
+		if ( passcode.length() != user.config.getPasscodeLength() ) {
+			return PasscodeVerifier.NO_MATCH;
+		}
+		synchronized ( user ) {
+			if ( user.key == null ) {
+				// Unregistered while we were waiting
+				return PasscodeVerifier.NO_MATCH;
+			}
+			long base = user.used.getBase();
+			int count = (int)Math.min( window, Long.MAX_VALUE - base );
+			int from = 0;
+			while ( from < count ) {
+				int match = cache.find( userId, user.config, user.key, base, count, passcode, from );
+				if ( match < 0 ) {
+					break;
+				}
+				if ( user.used.markUsed( base + match ) ) {
+					// Keep the passcode after this one in the window:
+					user.used.retireBelow( base + match - ( window - 2 ) );
+					return base + match;
+				}
+				// Already struck out; the same passcode may come up again
+				// further on
+				from = match + 1;
+			}
+			return PasscodeVerifier.NO_MATCH;
+		}
+	}
+
+	private static final class User {
+		final PPPconfig config;
+		final StrikeoutWindow used;
+		/* The raw sequence key, kept as bytes so it can be wiped; null once
+		 * the user has been unregistered */
+		byte[] key;
+
+		User(PPPconfig config, byte[] key, StrikeoutWindow used) {
+			this.config = config;
+			this.key = key;
+			this.used = used;
+		}
+
+		synchronized void wipe() {
+			Arrays.fill( key, (byte)0 );
+			key = null;
+		}
+	}
+}
@@ -0,0 +1,136 @@
+/**
+ * @(#)StrikeoutWindow.java
+ *
+ * Tracks which of a user's passcodes have been used, the server-side twin of
+ * the strike-outs the app keeps in CardDBAdapter.  Everything below the base
+ * counter counts as used; the size counters from the base on each have one
+ * bit, set once that passcode is used.  Whenever the passcode at the base is
+ * used the base moves up past every used passcode in a row, a whole 64-bit
+ * word at a time where it can, so the window slides forward as the low end
+ * fills while passcodes above it can still be used in any order.  The owner
+ * can also retire unused passcodes at the bottom with retireBelow(), so one
+ * passcode that is never used doesn't hold the window where it is.
+ *
+ * The bits live in a ring indexed by counter modulo the window size, so
+ * sliding never moves them.  Not thread-safe; callers lock around it.
+ */
+
+package com.gpfcomics.android.ppp.verify;
+import java.util.Arrays;
+
+public class StrikeoutWindow {
+
+	private final int size;
+	private final long[] bits;
+	private long base;
+
+	/**
+	 * @param base the lowest counter not yet used
+	 * @param size how many counters from the base on to track, rounded up to
+	 * a multiple of 64
+	 */
+	public StrikeoutWindow(long base, int size) {
+		if ( base < 0 ) {
+			throw new IllegalArgumentException("Counter must not be negative");
+		}
+		if ( size < 1 || size > Integer.MAX_VALUE - 63 ) {
+			throw new IllegalArgumentException("Invalid window size");
+		}
+		this.size = ( size + 63 ) & ~63;
+		bits = new long[this.size >>> 6];
+		this.base = base;
+	}
+
+	/**
+	 * The lowest counter not yet used
+	 */
+	public long getBase() {
+		return base;
+	}
+
+	/**
+	 * How many counters from the base on are tracked
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Whether a counter's passcode has been used.  Counters past the end of
+	 * the window have not.
+	 */
+	public boolean isUsed(long counter) {
+		if ( counter < base ) {
+			return true;
+		}
+		if ( counter - base >= size ) {
+			return false;
+		}
+		int i = (int)( counter % size );
+		return ( bits[i >>> 6] & ( 1L << ( i & 63 ) ) ) != 0;
+	}
+
+	/**
+	 * Mark a counter's passcode used.
+	 * @return true if it was unused and inside the window, false if it was
+	 * already used or is past the end of the window
+	 */
+	public boolean markUsed(long counter) {
+		if ( counter < base || counter - base >= size ) {
+			return false;
+		}
+		int i = (int)( counter % size );
+		long mask = 1L << ( i & 63 );
+		if ( ( bits[i >>> 6] & mask ) != 0 ) {
+			return false;
+		}
+		bits[i >>> 6] |= mask;
+		if ( counter == base ) {
+			slide();
+		}
+		return true;
+	}
+
+	/**
+	 * Give up every unused passcode below a counter: the base moves up to it,
+	 * or past it if it and the passcodes after it are already used.  Does
+	 * nothing if the base is already at or past the counter.
+	 */
+	public void retireBelow(long counter) {
+		if ( counter <= base ) {
+			return;
+		}
+		if ( counter - base >= size ) {
+			Arrays.fill( bits, 0L );
+		} else {
+			for ( long c = base; c < counter; ++c ) {
+				int i = (int)( c % size );
+				bits[i >>> 6] &= ~( 1L << ( i & 63 ) );
+			}
+		}
+		base = counter;
+		slide();
+	}
+
+	/**
+	 * Move the base past the used passcodes at the bottom of the window,
+	 * clearing their bits for the counters that will take their places.
+	 */
+	private void slide() {
+		while ( true ) {
+			int i = (int)( base % size );
+			int word = i >>> 6;
+			if ( ( i & 63 ) == 0 && bits[word] == -1L ) {
+				bits[word] = 0;
+				base += 64;
+				continue;
+			}
+			long mask = 1L << ( i & 63 );
+			if ( ( bits[word] & mask ) == 0 ) {
+				return;
+			}
+			bits[word] &= ~mask;
+			++base;
+		}
+	}
+}
@@ -0,0 +1,126 @@
+/**
+ * @(#)VerificationServer.java
+ *
+ * A small HTTP front end for a VerificationService, built on the HttpServer
+ * that ships with the JDK (com.sun.net.httpserver).  It only listens on the
+ * loopback address: it is meant to sit behind a proxy or gateway on the same
+ * host that deals with TLS and authenticating callers, never to face the
+ * network itself.
+ *
+ * Requests are handed to an executor.  On a JDK with virtual threads (21 and
+ * later) each request gets its own virtual thread, so a burst of slow
+ * clients costs next to nothing; Executors.newVirtualThreadPerTaskExecutor()
+ * is looked up by reflection since these sources still target Java 7.  On
+ * older JDKs the fallback is Executors.newCachedThreadPool(), which also
+ * gives every in-flight request a thread of its own, just a platform one.
+ */
+
+package com.gpfcomics.android.ppp.verify;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+public class VerificationServer {
+
+	/* Turns off Nagle's algorithm on the JDK server's connections */
+	private static final String NODELAY = "sun.net.httpserver.nodelay";
+
+	private final VerificationService service;
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final boolean virtualThreads;
+
+	/**
+	 * Bind to a port on the loopback address.  Nothing is served until
+	 * start() is called.
+	 * @param service the service to answer requests with
+	 * @param port port to listen on, or 0 for any free one
+	 * @throws IOException if the port can't be bound
+	 */
+	public VerificationServer(VerificationService service, int port) throws IOException {
+		if ( service == null ) {
+			throw new IllegalArgumentException("Service is required");
+		}
+		if ( port < 0 || port > 65535 ) {
+			throw new IllegalArgumentException("Invalid port");
+		}
+		this.service = service;
+		// The JDK server writes the headers and the body of a response
+		// separately, and with Nagle's algorithm on, a keep-alive client
+		// then waits out its delayed ACK, around 40 ms, on every request.
+		// The setting is read once, when the first server is created.
+		if ( System.getProperty( NODELAY ) == null ) {
+			System.setProperty( NODELAY, "true" );
+		}
+		ExecutorService virtual = newVirtualThreadExecutor();
+		virtualThreads = virtual != null;
+		executor = virtualThreads ? virtual : Executors.newCachedThreadPool();
+		server = HttpServer.create( new InetSocketAddress( InetAddress.getByName( "127.0.0.1" ), port ), 0 );
+		server.createContext( "/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				respond( exchange );
+			}
+		} );
+		server.setExecutor( executor );
+	}
+
+	public void start() {
+		server.start();
+	}
+
+	/**
+	 * Stop accepting requests and shut the executor down.
+	 * @param delaySeconds how long to give requests in flight to finish
+	 */
+	public void stop(int delaySeconds) {
+		server.stop( delaySeconds );
+		executor.shutdown();
+	}
+
+	/** The port actually listened on, useful after asking for port 0 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/** Whether requests are run on virtual threads */
+	public boolean usesVirtualThreads() {
+		return virtualThreads;
+	}
+
+	private void respond(HttpExchange exchange) throws IOException {
+		try {
+			StringBuilder body = new StringBuilder( 80 );
+			int status = service.handle( exchange.getRequestURI().getPath(),
+				VerificationService.parseQuery( exchange.getRequestURI().getRawQuery() ), body );
+			byte[] bytes = body.toString().getBytes( "UTF-8" );
+			exchange.getResponseHeaders().set( "Content-Type", "text/plain; charset=UTF-8" );
+			exchange.sendResponseHeaders( status, bytes.length );
+			OutputStream out = exchange.getResponseBody();
+			out.write( bytes );
+			out.close();
+		} finally {
+			exchange.close();
+		}
+	}
+
+	/**
+	 * Executors.newVirtualThreadPerTaskExecutor() if this JDK has it, or null
+	 */
+	private static ExecutorService newVirtualThreadExecutor() {
+		try {
+			Method factory = Executors.class.getMethod( "newVirtualThreadPerTaskExecutor" );
+			return (ExecutorService)factory.invoke( null );
+		} catch ( Exception e ) {
+			// Not in this JDK, or present but unusable, such as a preview
+			// API that hasn't been enabled
+			return null;
+		}
+	}
+}
@@ -0,0 +1,127 @@
+/**
+ * @(#)VerificationService.java
+ *
+ * The request side of a verification endpoint, kept apart from any particular
+ * server so it can sit behind whatever HTTP (or other) front end is to hand.
+ * The front end passes in the request path and its decoded parameters and
+ * copies the status code and plain-text body back out.  Two operations are
+ * offered:
+ *
+ *   /verify?user=ID&passcode=CODE   check a passcode, 200 if accepted and 403
+ *                                   if not, with its coordinates if accepted
+ *   /next?user=ID                   coordinates of the next expected passcode
+ *
+ * Coordinates are returned one per line as counter=, card=, column= and row=.
+ * Requests are handled on the caller's thread and don't block on each other,
+ * so the front end is free to choose its own threading.  VerificationServer
+ * is one such front end, an HTTP server on the loopback address.
+ */
+
+package com.gpfcomics.android.ppp.verify;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.gpfcomics.android.ppp.jppp.PPPconfig;
+public class VerificationService {
+
+	public static final int OK = 200;
+	public static final int BAD_REQUEST = 400;
+	public static final int FORBIDDEN = 403;
+	public static final int NOT_FOUND = 404;
+
+	private final PasscodeVerifier verifier;
+
+	public VerificationService(PasscodeVerifier verifier) {
+		if ( verifier == null ) {
+			throw new IllegalArgumentException("Verifier is required");
+		}
+		this.verifier = verifier;
+	}
+
+	public PasscodeVerifier getVerifier() {
+		return verifier;
+	}
+
+	/**
+	 * Handle one request.
+	 * @param path request path, such as "/verify"
+	 * @param params decoded request parameters
+	 * @param body destination for the plain-text response body
+	 * @return HTTP status code for the response
+	 * @throws IOException if body throws it
+	 */
+	public int handle(String path, Map<String, String> params, Appendable body) throws IOException {
+		String user = params.get( "user" );
+		if ( "/verify".equals( path ) ) {
+			String passcode = params.get( "passcode" );
+			if ( user == null || passcode == null ) {
+				body.append( "user and passcode are required\n" );
+				return BAD_REQUEST;
+			}
+			long counter = verifier.verify( user, passcode );
+			// The user may have been unregistered since the passcode was
+			// accepted, in which case there is nothing left to accept it for:
+			PPPconfig config = counter == PasscodeVerifier.NO_MATCH ? null
+				: verifier.getConfig( user );
+			if ( config == null ) {
+				body.append( "rejected\n" );
+				return FORBIDDEN;
+			}
+			body.append( "accepted\n" );
+			coordinates( config, counter, body );
+			return OK;
+		} else if ( "/next".equals( path ) ) {
+			if ( user == null ) {
+				body.append( "user is required\n" );
+				return BAD_REQUEST;
+			}
+			PPPconfig config = verifier.getConfig( user );
+			long counter = verifier.getNextCounter( user );
+			if ( config == null || counter == PasscodeVerifier.NO_MATCH ) {
+				body.append( "unknown user\n" );
+				return NOT_FOUND;
+			}
+			coordinates( config, counter, body );
+			return OK;
+		}
+		body.append( "unknown request\n" );
+		return NOT_FOUND;
+	}
+
+	/**
+	 * Decode an application/x-www-form-urlencoded query string, such as the
+	 * part of a request URI after the "?".  Later values win over earlier ones
+	 * with the same name.
+	 */
+	public static Map<String, String> parseQuery(String query) {
+		Map<String, String> params = new HashMap<String, String>();
+		if ( query == null || query.length() == 0 ) {
+			return params;
+		}
+		try {
+			for ( String pair : query.split( "&" ) ) {
+				int eq = pair.indexOf( '=' );
+				if ( eq < 0 ) {
+					params.put( URLDecoder.decode( pair, "UTF-8" ), "" );
+				} else {
+					params.put( URLDecoder.decode( pair.substring( 0, eq ), "UTF-8" ),
+						URLDecoder.decode( pair.substring( eq + 1 ), "UTF-8" ) );
+				}
+			}
+		} catch ( UnsupportedEncodingException e ) {
+			// Every Java platform has UTF-8
+			throw new IllegalStateException(e.toString());
+		}
+		return params;
+	}
+
+	private static void coordinates(PPPconfig config, long counter, Appendable body) throws IOException {
+		body.append( "counter=" ).append( Long.toString( counter ) ).append( '\n' );
+		body.append( "card=" ).append( Integer.toString( config.getCard( counter ) ) ).append( '\n' );
+		body.append( "column=" ).append( Integer.toString( config.getColumn( counter ) ) ).append( '\n' );
+		body.append( "row=" ).append( Integer.toString( config.getRow( counter ) ) ).append( '\n' );
+	}
+}
@@ -0,0 +1,267 @@
+/**
+ * @(#)WindowCache.java
+ *
+ * Keeps the upcoming verification window of recently active users, so that a
+ * login doesn't have to expand the user's sequence key and regenerate the
+ * whole window every time.  Each entry holds the user's keyed engine and the
+ * passcodes from some counter on, packed into one char array.  When the
+ * user's counter moves forward the entry slides: passcodes still in the
+ * window are moved down and only the new tail is generated.
+ *
+ * The cache holds at most maxEntries users and evicts the least recently used
+ * one beyond that.  An evicted entry's passcodes are overwritten and its
+ * expanded key zeroed before it is dropped.
+ */
+
+package com.gpfcomics.android.ppp.verify;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.gpfcomics.android.ppp.jppp.PPPciphers;
+import com.gpfcomics.android.ppp.jppp.PPPconfig;
+import com.gpfcomics.android.ppp.jppp.PPPengine;
+public class WindowCache {
+
+	private final int maxEntries;
+	private final LinkedHashMap<String, Window> entries;
+	/* Entries evicted by the last put(), wiped once the map lock is released */
+	private final List<Window> evicted = new ArrayList<Window>();
+
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+
+	/**
+	 * @param maxEntries the most users to hold windows for at once
+	 */
+	public WindowCache(int maxEntries) {
+		if ( maxEntries < 1 ) {
+			throw new IllegalArgumentException("Cache size must be positive");
+		}
+		this.maxEntries = maxEntries;
+		entries = new LinkedHashMap<String, Window>( 16, 0.75f, true ) {
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(Map.Entry<String, Window> eldest) {
+				if ( size() > WindowCache.this.maxEntries ) {
+					evicted.add( eldest.getValue() );
+					++evictions;
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Find a passcode in a user's window, generating whatever part of the
+	 * window isn't already cached.
+	 * @param userId user id the window is cached under
+	 * @param config the user's card parameters
+	 * @param sequenceKey the user's 32-byte sequence key, used on a miss
+	 * @param firstCounter counter of the first passcode in the window
+	 * @param count number of passcodes in the window
+	 * @param passcode the passcode to look for
+	 * @return the index in the window of the first matching passcode, or -1
+	 */
+	public int find(String userId, PPPconfig config, byte[] sequenceKey, long firstCounter,
+			int count, CharSequence passcode) {
+		return find( userId, config, sequenceKey, firstCounter, count, passcode, 0 );
+	}
+
+	/**
+	 * Find a passcode in a user's window, ignoring matches before a given
+	 * index, for callers that need the next match after one they can't use.
+	 * @param from index in the window to start looking from
+	 * @see #find(String, PPPconfig, byte[], long, int, CharSequence)
+	 */
+	public int find(String userId, PPPconfig config, byte[] sequenceKey, long firstCounter,
+			int count, CharSequence passcode, int from) {
+		while ( true ) {
+			Window entry = lookup( userId, config, sequenceKey );
+			synchronized ( entry ) {
+				// Evicted between the lookup and here; go round again
+				if ( entry.engine == null ) {
+					continue;
+				}
+				entry.slide( firstCounter, count );
+				return PasscodeVerifier.find( entry.chars, from, count,
+					config.getPasscodeLength(), passcode );
+			}
+		}
+	}
+
+	/**
+	 * Drop and wipe a user's cached window, for instance because their
+	 * sequence key has changed.
+	 */
+	public void invalidate(String userId) {
+		Window entry;
+		synchronized ( entries ) {
+			entry = entries.remove( userId );
+		}
+		if ( entry != null ) {
+			entry.wipe();
+		}
+	}
+
+	/**
+	 * Drop and wipe a user's cached window only if it was made from the given
+	 * key array, leaving any window for a newer registration alone.
+	 */
+	public void invalidate(String userId, byte[] sequenceKey) {
+		Window entry = null;
+		synchronized ( entries ) {
+			Window cached = entries.get( userId );
+			if ( cached != null && cached.key == sequenceKey ) {
+				entry = entries.remove( userId );
+			}
+		}
+		if ( entry != null ) {
+			entry.wipe();
+		}
+	}
+
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	public int size() {
+		synchronized ( entries ) {
+			return entries.size();
+		}
+	}
+
+	/** How many lookups found the user's window already cached */
+	public long getHits() {
+		synchronized ( entries ) {
+			return hits;
+		}
+	}
+
+	/** How many lookups had to expand the user's key and start a new window */
+	public long getMisses() {
+		synchronized ( entries ) {
+			return misses;
+		}
+	}
+
+	/** How many windows have been dropped to keep within maxEntries */
+	public long getEvictions() {
+		synchronized ( entries ) {
+			return evictions;
+		}
+	}
+
+	private Window lookup(String userId, PPPconfig config, byte[] sequenceKey) {
+		synchronized ( entries ) {
+			Window entry = entries.get( userId );
+			if ( matches( entry, config, sequenceKey ) ) {
+				++hits;
+				return entry;
+			}
+		}
+		// Expanding the key is the slow part of a miss, so do it without
+		// holding up every other user's lookups.  The jppp backend is pinned
+		// because its destroy() zeroes the key schedule in place; a JCA
+		// provider's copy can only be re-keyed over.
+		Window fresh = new Window( config, sequenceKey,
+			new PPPengine( config, sequenceKey, PPPciphers.JPPP ) );
+		Window entry;
+		Window[] wipe = null;
+		synchronized ( entries ) {
+			entry = entries.get( userId );
+			if ( matches( entry, config, sequenceKey ) ) {
+				// Another login for the same user got there first; use its
+				// window and throw ours away
+				++hits;
+				wipe = new Window[] { fresh };
+			} else {
+				++misses;
+				if ( entry != null ) {
+					entries.remove( userId );
+					evicted.add( entry );
+				}
+				entry = fresh;
+				entries.put( userId, entry );
+				if ( !evicted.isEmpty() ) {
+					wipe = evicted.toArray( new Window[evicted.size()] );
+					evicted.clear();
+				}
+			}
+		}
+		// Wipe outside the map lock, so a slow entry doesn't hold up the cache:
+		if ( wipe != null ) {
+			for ( int i = 0; i < wipe.length; ++i ) {
+				wipe[i].wipe();
+			}
+		}
+		return entry;
+	}
+
+	/**
+	 * A window only serves the registration it was made for; a new key or
+	 * new card parameters start a new one
+	 */
+	private static boolean matches(Window entry, PPPconfig config, byte[] sequenceKey) {
+		return entry != null && entry.config == config && entry.key == sequenceKey;
+	}
+
+	private static final class Window {
+		final PPPconfig config;
+		/* The key array this window was made from, only compared by identity */
+		final byte[] key;
+		final int length;
+		/* Null once the entry has been wiped */
+		PPPengine engine;
+		char[] chars = new char[0];
+		long first = 0;
+		int filled = 0;
+
+		Window(PPPconfig config, byte[] key, PPPengine engine) {
+			this.config = config;
+			this.key = key;
+			this.engine = engine;
+			length = config.getPasscodeLength();
+		}
+
+		/**
+		 * Make chars hold count passcodes starting at firstCounter, keeping
+		 * whatever overlaps the current window.
+		 */
+		void slide(long firstCounter, int count) {
+			if ( firstCounter >= first && firstCounter - first < filled ) {
+				int shift = (int)( firstCounter - first );
+				if ( shift > 0 ) {
+					System.arraycopy( chars, shift * length, chars, 0, ( filled - shift ) * length );
+					filled -= shift;
+				}
+			} else {
+				filled = 0;
+			}
+			first = firstCounter;
+			if ( chars.length < count * length ) {
+				char[] grown = new char[count * length];
+				System.arraycopy( chars, 0, grown, 0, filled * length );
+				Arrays.fill( chars, '\0' );
+				chars = grown;
+			}
+			if ( filled < count ) {
+				engine.generatePasscodes( first + filled, count - filled, chars, filled * length );
+				filled = count;
+			}
+		}
+
+		synchronized void wipe() {
+			if ( engine != null ) {
+				engine.destroy();
+				engine = null;
+			}
+			Arrays.fill( chars, '\0' );
+			filled = 0;
+		}
+	}
+}
@@ -1,5 +1,7 @@
 package org.bouncycastle.crypto.digests;
 
+import java.nio.ByteBuffer;
+
 import org.bouncycastle.crypto.ExtendedDigest;
 
 /**
@@ -92,6 +94,52 @@ public abstract class GeneralDigest
         }
     }
 
+    /**
+     * update the message digest with the bytes remaining in a buffer,
+     * leaving its position at its limit.
+     *
+     * @param in the buffer holding the data.
+     */
+    public void update(
+        ByteBuffer  in)
+    {
+        if (in.hasArray())
+        {
+            int len = in.remaining();
+
+            update(in.array(), in.arrayOffset() + in.position(), len);
+            in.position(in.position() + len);
+            return;
+        }
+
+        //
+        // fill the current word
+        //
+        while ((xBufOff != 0) && in.hasRemaining())
+        {
+            update(in.get());
+        }
+
+        //
+        // process whole words, copied through the word buffer.
+        //
+        while (in.remaining() > xBuf.length)
+        {
+            in.get(xBuf, 0, xBuf.length);
+            processWord(xBuf, 0);
+
+            byteCount += xBuf.length;
+        }
+
+        //
+        // load in the remainder.
+        //
+        while (in.hasRemaining())
+        {
+            update(in.get());
+        }
+    }
+
     public void finish()
     {
         long    bitLength = (byteCount << 3);
@@ -0,0 +1,112 @@
+/* AESFastEngineBenchmarkTest.java
+ *
+ * Checks the AESFastEngine used for sequence key encryption against the FIPS-197
+ * test vectors and against the RijndaelEngine it replaced, then times CBC
+ * encryption of a megabyte through each.  Both have to give identical output or
+ * sequence keys already stored in a user's database would no longer decrypt.
+*/
+package com.gpfcomics.android.ppp;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.bouncycastle.crypto.BlockCipher;
+import org.bouncycastle.crypto.BufferedBlockCipher;
+import org.bouncycastle.crypto.engines.AESFastEngine;
+import org.bouncycastle.crypto.engines.RijndaelEngine;
+import org.bouncycastle.crypto.modes.CBCBlockCipher;
+import org.bouncycastle.crypto.paddings.PaddedBufferedBlockCipher;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.crypto.params.ParametersWithIV;
+import org.junit.Test;
+
+import com.gpfcomics.android.ppp.jppp.Hex;
+
+public class AESFastEngineBenchmarkTest {
+
+	/** FIPS-197 appendix C: key, plaintext and ciphertext for AES-128, 192 and 256 */
+	private static final String[][] FIPS_197 = {
+		{ "000102030405060708090a0b0c0d0e0f",
+		  "00112233445566778899aabbccddeeff", "69c4e0d86a7b0430d8cdb78070b4c55a" },
+		{ "000102030405060708090a0b0c0d0e0f1011121314151617",
+		  "00112233445566778899aabbccddeeff", "dda97ca4864cdfe06eaf70a0ec0d7191" },
+		{ "000102030405060708090a0b0c0d0e0f101112131415161718191a1b1c1d1e1f",
+		  "00112233445566778899aabbccddeeff", "8ea2b7ca516745bfeafc49904b496089" }
+	};
+
+	private static final int MEGABYTE = 1 << 20;
+
+	@Test
+	public void fips197Vectors() {
+		for (String[] vector : FIPS_197) {
+			byte[] key = Hex.decode(vector[0]);
+			byte[] plain = Hex.decode(vector[1]);
+			byte[] expected = Hex.decode(vector[2]);
+			byte[] out = new byte[16];
+			AESFastEngine engine = new AESFastEngine();
+			engine.init(true, new KeyParameter(key));
+			engine.processBlock(plain, 0, out, 0);
+			assertArrayEquals(expected, out);
+			engine.init(false, new KeyParameter(key));
+			engine.processBlock(expected, 0, out, 0);
+			assertArrayEquals(plain, out);
+		}
+	}
+
+	@Test
+	public void matchesRijndaelEngine() throws Exception {
+		Random random = new Random(24);
+		for (int i = 0; i < 500; i++) {
+			byte[] key = new byte[16 + 8 * random.nextInt(3)];
+			byte[] iv = new byte[16];
+			byte[] message = new byte[random.nextInt(200)];
+			random.nextBytes(key);
+			random.nextBytes(iv);
+			random.nextBytes(message);
+			ParametersWithIV params = new ParametersWithIV(new KeyParameter(key), iv);
+			byte[] fast = crypt(new AESFastEngine(), true, params, message);
+			assertArrayEquals(crypt(new RijndaelEngine(), true, params, message), fast);
+			assertArrayEquals(message, crypt(new RijndaelEngine(), false, params, fast));
+		}
+	}
+
+	@Test
+	public void throughput() throws Exception {
+		byte[] key = new byte[32];
+		byte[] iv = new byte[16];
+		byte[] message = new byte[MEGABYTE];
+		new Random(24).nextBytes(message);
+		ParametersWithIV params = new ParametersWithIV(new KeyParameter(key), iv);
+		long fast = time(new AESFastEngine(), params, message);
+		long rijndael = time(new RijndaelEngine(), params, message);
+		System.out.println("1 MB CBC: AESFastEngine " + fast / 1000000 + " ms, RijndaelEngine "
+				+ rijndael / 1000000 + " ms");
+	}
+
+	/** Nanoseconds to encrypt a message, after a warm-up run */
+	private static long time(BlockCipher engine, ParametersWithIV params, byte[] message)
+			throws Exception {
+		crypt(engine, true, params, message);
+		long start = System.nanoTime();
+		byte[] out = crypt(engine, true, params, message);
+		long nanos = System.nanoTime() - start;
+		assertEquals(message.length + 16, out.length);
+		return nanos;
+	}
+
+	/** CBC with PKCS7 padding, the way PPPApplication encrypts sequence keys */
+	private static byte[] crypt(BlockCipher engine, boolean encrypt, ParametersWithIV params,
+			byte[] input) throws Exception {
+		BufferedBlockCipher cipher = new PaddedBufferedBlockCipher(new CBCBlockCipher(engine));
+		cipher.init(encrypt, params);
+		byte[] output = new byte[cipher.getOutputSize(input.length)];
+		int length = cipher.processBytes(input, 0, input.length, output, 0);
+		length += cipher.doFinal(output, length);
+		if (length == output.length) return output;
+		byte[] trimmed = new byte[length];
+		System.arraycopy(output, 0, trimmed, 0, length);
+		return trimmed;
+	}
+}
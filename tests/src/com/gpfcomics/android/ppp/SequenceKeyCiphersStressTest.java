@@ -0,0 +1,103 @@
+/* SequenceKeyCiphersStressTest.java
+ *
+ * Encrypts and decrypts sequence keys on several threads at once through one
+ * SequenceKeyCiphers, with another thread wiping the ciphers the whole time, and
+ * checks every result against single-threaded output.  Before each thread had its
+ * own cipher, threads sharing one routinely got each other's output back.
+*/
+package com.gpfcomics.android.ppp;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.crypto.params.ParametersWithIV;
+import org.junit.Test;
+
+import com.gpfcomics.android.ppp.jppp.Hex;
+
+public class SequenceKeyCiphersStressTest {
+
+	private static final int[] THREADS = { 1, 2, 4, 8, 16 };
+	private static final int KEYS = 400;
+	private static final int CALLS = 5000;
+
+	@Test
+	public void threadsDontShareCiphers() throws Exception {
+		byte[] rawKey = new byte[32];
+		byte[] iv = new byte[16];
+		Random random = new Random(25);
+		random.nextBytes(rawKey);
+		random.nextBytes(iv);
+		final ParametersWithIV key = new ParametersWithIV(new KeyParameter(rawKey), iv);
+		final SequenceKeyCiphers ciphers = new SequenceKeyCiphers();
+		// Sequence keys as the app encrypts them:  64 hex digits as bytes
+		final byte[][] plain = new byte[KEYS][];
+		final byte[][] encrypted = new byte[KEYS][];
+		for (int i = 0; i < KEYS; i++) {
+			byte[] seqKey = new byte[32];
+			random.nextBytes(seqKey);
+			plain[i] = Hex.encode(seqKey, true).getBytes("UTF-8");
+			encrypted[i] = ciphers.crypt(plain[i], key, true);
+			assertArrayEquals(plain[i], trim(ciphers.crypt(encrypted[i], key, false)));
+		}
+		for (int threads : THREADS) {
+			final AtomicInteger bad = new AtomicInteger(0);
+			final AtomicBoolean stop = new AtomicBoolean(false);
+			Thread wiper = new Thread() {
+				public void run() {
+					while (!stop.get()) ciphers.wipe();
+				}
+			};
+			wiper.start();
+			Thread[] workers = new Thread[threads];
+			long start = System.nanoTime();
+			for (int t = 0; t < threads; t++) {
+				final Random r = new Random(t);
+				workers[t] = new Thread() {
+					public void run() {
+						try {
+							for (int j = 0; j < CALLS; j++) {
+								int i = r.nextInt(KEYS);
+								if (r.nextBoolean()) {
+									byte[] out = trim(ciphers.crypt(encrypted[i], key, false));
+									if (!Arrays.equals(plain[i], out)) bad.incrementAndGet();
+								} else {
+									byte[] out = ciphers.crypt(plain[i], key, true);
+									if (!Arrays.equals(encrypted[i], out)) bad.incrementAndGet();
+								}
+							}
+						} catch (Exception e) {
+							bad.incrementAndGet();
+						}
+					}
+				};
+				workers[t].start();
+			}
+			for (Thread worker : workers) worker.join();
+			long nanos = System.nanoTime() - start;
+			stop.set(true);
+			wiper.join();
+			assertEquals(threads + " threads", 0, bad.get());
+			System.out.println(threads + " threads: " + (long)(threads * CALLS / (nanos / 1e9))
+					+ " calls/s");
+		}
+		// One cipher for each thread that has used it, at most:
+		assertTrue(ciphers.size() <= 1 + 1 + 2 + 4 + 8 + 16);
+	}
+
+	/** Decryption leaves the padding as trailing nulls; drop them */
+	private static byte[] trim(byte[] decrypted) {
+		int length = decrypted.length;
+		while (length > 0 && decrypted[length - 1] == 0) length--;
+		byte[] trimmed = new byte[length];
+		System.arraycopy(decrypted, 0, trimmed, 0, length);
+		return trimmed;
+	}
+}
@@ -0,0 +1,60 @@
+/**
+ * @(#)DigitExtractionBenchmarkTest.java
+ *
+ * Times passcode generation for 4, 8 and 16 character passcodes over the
+ * default 64-character and the 88-character "aggressive" alphabets, the cases
+ * the multi-digit extraction was written for.  Each case is first checked
+ * against one-at-a-time generation, then timed in bulk; the rates are printed
+ * rather than asserted, since they depend on the machine.
+ */
+
+package com.gpfcomics.android.ppp.jppp;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+public class DigitExtractionBenchmarkTest {
+
+	/** The same 88 characters as Cardset.AGGRESSIVE_ALPHABET in the app */
+	static final String AGGRESSIVE_ALPHABET =
+		"!\"#$%&'()*+,-./23456789:;<=>?@ABCDEFGHJKLMNOPRSTUVWXYZ[\\]^_abcdefghijkmnopqrstuvwxyz{|}~";
+
+	private static final int PASSCODES = 200000;
+	private static final int BATCH = 1000;
+
+	@Test
+	public void defaultAlphabet() {
+		run( "default", PPPconfig.DEFAULT_ALPHABET );
+	}
+
+	@Test
+	public void aggressiveAlphabet() {
+		run( "aggressive", AGGRESSIVE_ALPHABET );
+	}
+
+	private void run(String name, String alphabet) {
+		int[] lengths = { 4, 8, 16 };
+		for ( int l = 0; l < lengths.length; ++l ) {
+			int length = lengths[l];
+			PPPengine engine = new PPPengine( new PPPconfig( alphabet, 7, 10, length ),
+				PasscodeAllocationTest.KEY, PPPciphers.JPPP );
+			char[] chars = new char[BATCH * length];
+			engine.generatePasscodes( 0L, BATCH, chars, 0 );
+			for ( int i = 0; i < BATCH; ++i ) {
+				assertEquals( engine.getPasscode( (long)i ), new String( chars, i * length, length ) );
+			}
+			// Warm up, then time:
+			generate( engine, chars );
+			long start = System.nanoTime();
+			generate( engine, chars );
+			long nanos = System.nanoTime() - start;
+			System.out.println( name + " alphabet, " + length + " characters: "
+				+ ( nanos / PASSCODES ) + " ns/passcode" );
+		}
+	}
+
+	private static void generate(PPPengine engine, char[] chars) {
+		for ( long counter = 0; counter < PASSCODES; counter += BATCH ) {
+			engine.generatePasscodes( counter, BATCH, chars, 0 );
+		}
+	}
+}
@@ -0,0 +1,76 @@
+/**
+ * @(#)ParallelGenerationBenchmarkTest.java
+ *
+ * Times generatePasscodes() and generateCards() on an executor with 1, 2, 4
+ * and 8 threads.  Every run is compared with single-threaded generation
+ * first, including counts that don't divide evenly into chunks, and the
+ * speed-up over one thread is printed.
+ */
+
+package com.gpfcomics.android.ppp.jppp;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+public class ParallelGenerationBenchmarkTest {
+
+	private static final int[] THREADS = { 1, 2, 4, 8 };
+	private static final int PASSCODES = 1000000;
+
+	private ExecutorService executor;
+	private PPPengine engine;
+
+	@Before
+	public void setUp() {
+		executor = Executors.newFixedThreadPool( 8 );
+		engine = new PPPengine( PPPconfig.DEFAULT, PasscodeAllocationTest.KEY, PPPciphers.JPPP );
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void matchesSingleThreaded() throws InterruptedException {
+		int[] counts = { 0, 1, 127, 128, 129, 10007 };
+		for ( int c = 0; c < counts.length; ++c ) {
+			int count = counts[c];
+			char[] expected = new char[count * 4];
+			engine.generatePasscodes( 12345L, count, expected, 0 );
+			for ( int t = 0; t < THREADS.length; ++t ) {
+				char[] actual = new char[count * 4];
+				engine.generatePasscodes( 12345L, count, actual, 0, executor, THREADS[t] );
+				assertArrayEquals( "count " + count + ", threads " + THREADS[t], expected, actual );
+			}
+		}
+		StringBuilder cards = new StringBuilder();
+		for ( int card = 3; card < 53; ++card ) {
+			cards.append( engine.generateCard( card ).getChars() );
+		}
+		assertEquals( cards.toString(), new String( engine.generateCards( 3, 50, executor, 4 ) ) );
+	}
+
+	@Test
+	public void scaling() throws InterruptedException {
+		char[] chars = new char[PASSCODES * 4];
+		long single = 0;
+		for ( int t = 0; t < THREADS.length; ++t ) {
+			int threads = THREADS[t];
+			engine.generatePasscodes( 0L, PASSCODES, chars, 0, executor, threads );
+			long start = System.nanoTime();
+			engine.generatePasscodes( 0L, PASSCODES, chars, 0, executor, threads );
+			long nanos = System.nanoTime() - start;
+			if ( threads == 1 ) {
+				single = nanos;
+			}
+			System.out.println( threads + " threads: " + (long)( PASSCODES / ( nanos / 1e9 ) )
+				+ " passcodes/s, " + String.format( "%.2f", (double)single / nanos ) + "x" );
+		}
+	}
+}
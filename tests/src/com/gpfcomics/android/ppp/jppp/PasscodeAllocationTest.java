@@ -0,0 +1,92 @@
+/**
+ * @(#)PasscodeAllocationTest.java
+ *
+ * Checks that the char[] and CharBuffer getPasscode() overloads really don't
+ * allocate, by reading this thread's allocation counter around a run of
+ * calls.  Needs a JVM that counts allocated bytes per thread; the test is
+ * skipped on one that doesn't.
+ */
+
+package com.gpfcomics.android.ppp.jppp;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+
+import org.junit.Before;
+import org.junit.Test;
+public class PasscodeAllocationTest {
+
+	static final String KEY = "49460b7bbbd3aad3f2cba09864f5e8b01a220ea8c077e9fa996de367e7984af0";
+
+	private static final int CALLS = 100000;
+
+	private com.sun.management.ThreadMXBean threads;
+
+	@Before
+	public void setUp() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		assumeTrue( bean instanceof com.sun.management.ThreadMXBean );
+		threads = (com.sun.management.ThreadMXBean)bean;
+		assumeTrue( threads.isThreadAllocatedMemorySupported() );
+		threads.setThreadAllocatedMemoryEnabled( true );
+	}
+
+	@Test
+	public void charArrayOverloadMatchesString() {
+		PPPengine engine = new PPPengine( PPPconfig.DEFAULT, KEY );
+		char[] dest = new char[10];
+		for ( long counter = 0; counter < 1000; ++counter ) {
+			engine.getPasscode( counter, dest, 3 );
+			assertEquals( engine.getPasscode( counter ), new String( dest, 3, 4 ) );
+		}
+	}
+
+	@Test
+	public void charArrayOverloadDoesNotAllocate() {
+		final PPPengine engine = new PPPengine( PPPconfig.DEFAULT, KEY, PPPciphers.JPPP );
+		final char[] dest = new char[4];
+		long bytes = allocatedBy( new Runnable() {
+			public void run() {
+				for ( int i = 0; i < CALLS; ++i ) {
+					engine.getPasscode( i, dest, 0 );
+				}
+			}
+		} );
+		System.out.println( "getPasscode(long, char[], int): " + bytes + " bytes over " + CALLS + " calls" );
+		assertTrue( "allocated " + bytes + " bytes", bytes < CALLS );
+	}
+
+	@Test
+	public void charBufferOverloadDoesNotAllocate() {
+		final PPPengine engine = new PPPengine( PPPconfig.DEFAULT, KEY, PPPciphers.JPPP );
+		final CharBuffer dest = ByteBuffer.allocateDirect( 8 ).asCharBuffer();
+		long bytes = allocatedBy( new Runnable() {
+			public void run() {
+				for ( int i = 0; i < CALLS; ++i ) {
+					dest.clear();
+					engine.getPasscode( i, dest );
+				}
+			}
+		} );
+		System.out.println( "getPasscode(long, CharBuffer): " + bytes + " bytes over " + CALLS + " calls" );
+		assertTrue( "allocated " + bytes + " bytes", bytes < CALLS );
+	}
+
+	/**
+	 * Bytes this thread allocates running a task, after running it a few
+	 * times first so the JIT has settled
+	 */
+	private long allocatedBy(Runnable task) {
+		for ( int i = 0; i < 5; ++i ) {
+			task.run();
+		}
+		long id = Thread.currentThread().getId();
+		long before = threads.getThreadAllocatedBytes( id );
+		task.run();
+		return threads.getThreadAllocatedBytes( id ) - before;
+	}
+}
@@ -0,0 +1,112 @@
+/**
+ * @(#)BatchVerificationBenchmarkTest.java
+ *
+ * Checks that verifyAll() gives exactly what calling verify() on each
+ * submission in turn would, then times batches of 1, 64 and 1024 submissions
+ * against the same logins made one verify() at a time.
+ */
+
+package com.gpfcomics.android.ppp.verify;
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.gpfcomics.android.ppp.jppp.PPPconfig;
+import com.gpfcomics.android.ppp.jppp.PPPengine;
+public class BatchVerificationBenchmarkTest {
+
+	private static final int[] BATCHES = { 1, 64, 1024 };
+	private static final int USERS = 32;
+	private static final int SUBMISSIONS = 65536;
+
+	private ExecutorService executor;
+	private String[] passcodes;
+
+	@Before
+	public void setUp() {
+		executor = Executors.newFixedThreadPool( 4 );
+		PPPengine engine = new PPPengine( PasscodeVerifierBenchmarkTest.KEY );
+		passcodes = new String[SUBMISSIONS / USERS + 1];
+		for ( int i = 0; i < passcodes.length; ++i ) {
+			passcodes[i] = engine.getPasscode( (long)i );
+		}
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void matchesOneAtATime() throws InterruptedException {
+		// Each user's submissions in order, with some replays and some
+		// skipped passcodes mixed in:
+		String[] userIds = new String[2000];
+		CharSequence[] submitted = new CharSequence[userIds.length];
+		int[] next = new int[7];
+		for ( int i = 0; i < userIds.length; ++i ) {
+			int u = ( i * 5 ) % next.length;
+			userIds[i] = "u" + u;
+			int counter = next[u] + ( i % 3 == 0 ? -1 : i % 11 == 0 ? 4 : 0 );
+			submitted[i] = passcodes[Math.max( 0, counter )];
+			next[u] = Math.max( next[u], counter + 1 );
+		}
+		PasscodeVerifier single = verifier( next.length );
+		long[] expected = new long[userIds.length];
+		for ( int i = 0; i < userIds.length; ++i ) {
+			expected[i] = single.verify( userIds[i], submitted[i] );
+		}
+		assertArrayEquals( expected, verifier( next.length ).verifyAll( userIds, submitted, executor, 4 ) );
+		assertArrayEquals( expected, verifier( next.length ).verifyAll( userIds, submitted, executor, 1 ) );
+	}
+
+	@Test
+	public void throughput() throws InterruptedException {
+		String[] userIds = new String[SUBMISSIONS];
+		CharSequence[] submitted = new CharSequence[SUBMISSIONS];
+		for ( int i = 0; i < SUBMISSIONS; ++i ) {
+			userIds[i] = "u" + ( i % USERS );
+			submitted[i] = passcodes[i / USERS];
+		}
+		long start = 0;
+		for ( int run = 0; run < 2; ++run ) {
+			// The first run only warms up
+			PasscodeVerifier verifier = verifier( USERS );
+			start = System.nanoTime();
+			for ( int i = 0; i < SUBMISSIONS; ++i ) {
+				verifier.verify( userIds[i], submitted[i] );
+			}
+		}
+		report( "one at a time", System.nanoTime() - start );
+		for ( int b = 0; b < BATCHES.length; ++b ) {
+			int batch = BATCHES[b];
+			String[] batchUsers = new String[batch];
+			CharSequence[] batchPasscodes = new CharSequence[batch];
+			PasscodeVerifier verifier = verifier( USERS );
+			start = System.nanoTime();
+			for ( int from = 0; from < SUBMISSIONS; from += batch ) {
+				System.arraycopy( userIds, from, batchUsers, 0, batch );
+				System.arraycopy( submitted, from, batchPasscodes, 0, batch );
+				verifier.verifyAll( batchUsers, batchPasscodes, executor, 4 );
+			}
+			report( "batches of " + batch, System.nanoTime() - start );
+		}
+	}
+
+	private static PasscodeVerifier verifier(int users) {
+		PasscodeVerifier verifier = new PasscodeVerifier( 10 );
+		for ( int u = 0; u < users; ++u ) {
+			verifier.register( "u" + u, PPPconfig.DEFAULT, PasscodeVerifierBenchmarkTest.KEY, 0 );
+		}
+		return verifier;
+	}
+
+	private static void report(String name, long nanos) {
+		System.out.println( name + ": " + (long)( SUBMISSIONS / ( nanos / 1e9 ) ) + " submissions/s" );
+	}
+}
@@ -0,0 +1,68 @@
+/**
+ * @(#)PasscodeVerifierBenchmarkTest.java
+ *
+ * Checks PasscodeVerifier's window rules, then times verification with
+ * windows of 1, 10 and 70 passcodes: users logging in with their next
+ * passcode, and a wrong passcode that has to be compared against the whole
+ * window before it is rejected.
+ */
+
+package com.gpfcomics.android.ppp.verify;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import com.gpfcomics.android.ppp.jppp.PPPconfig;
+import com.gpfcomics.android.ppp.jppp.PPPengine;
+public class PasscodeVerifierBenchmarkTest {
+
+	static final String KEY = "49460b7bbbd3aad3f2cba09864f5e8b01a220ea8c077e9fa996de367e7984af0";
+
+	private static final int[] WINDOWS = { 1, 10, 70 };
+	private static final int LOGINS = 100000;
+
+	@Test
+	public void window() {
+		PPPengine engine = new PPPengine( KEY );
+		PasscodeVerifier verifier = new PasscodeVerifier( 10 );
+		verifier.register( "u", PPPconfig.DEFAULT, KEY, 5 );
+		assertEquals( 5L, verifier.verify( "u", engine.getPasscode( 5L ) ) );
+		// Used once already:
+		assertEquals( PasscodeVerifier.NO_MATCH, verifier.verify( "u", engine.getPasscode( 5L ) ) );
+		// Last one in the window, skipping 6 to 14:
+		assertEquals( 15L, verifier.verify( "u", engine.getPasscode( 15L ) ) );
+		assertEquals( PasscodeVerifier.NO_MATCH, verifier.verify( "u", engine.getPasscode( 14L ) ) );
+		// One past the end of the window:
+		assertEquals( PasscodeVerifier.NO_MATCH, verifier.verify( "u", engine.getPasscode( 26L ) ) );
+		assertEquals( 16L, verifier.getNextCounter( "u" ) );
+		assertEquals( PasscodeVerifier.NO_MATCH, verifier.verify( "nobody", "abcd" ) );
+	}
+
+	@Test
+	public void throughput() {
+		PPPengine engine = new PPPengine( KEY );
+		String[] passcodes = new String[LOGINS];
+		for ( int i = 0; i < LOGINS; ++i ) {
+			passcodes[i] = engine.getPasscode( (long)i );
+		}
+		for ( int w = 0; w < WINDOWS.length; ++w ) {
+			int window = WINDOWS[w];
+			PasscodeVerifier verifier = new PasscodeVerifier( window );
+			verifier.register( "u", PPPconfig.DEFAULT, KEY, 0 );
+			long start = System.nanoTime();
+			for ( int i = 0; i < LOGINS; ++i ) {
+				assertEquals( (long)i, verifier.verify( "u", passcodes[i] ) );
+			}
+			long accepted = System.nanoTime() - start;
+			start = System.nanoTime();
+			for ( int i = 0; i < LOGINS; ++i ) {
+				// Not in the default alphabet, so never matches:
+				verifier.verify( "u", "0000" );
+			}
+			long rejected = System.nanoTime() - start;
+			System.out.println( "window " + window + ": "
+				+ (long)( LOGINS / ( accepted / 1e9 ) ) + " accepted/s, "
+				+ (long)( LOGINS / ( rejected / 1e9 ) ) + " rejected/s" );
+		}
+	}
+}
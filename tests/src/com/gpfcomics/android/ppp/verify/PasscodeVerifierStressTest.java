@@ -0,0 +1,218 @@
+/**
+ * @(#)PasscodeVerifierStressTest.java
+ *
+ * Runs 64 threads of logins against one PasscodeVerifier, with users shared
+ * between threads and a window cache smaller than the user count so entries
+ * are evicted under load, and checks that no passcode is ever accepted
+ * twice.  A second test registers a user again with a different key while
+ * logins with the old key are in flight, which must never be accepted once
+ * the new key is in place.  A third registers a user again at a lower
+ * counter while logins are in flight, through a counter store that is slow
+ * to take the new counter, and checks that no passcode of the new
+ * registration is accepted twice.
+ */
+
+package com.gpfcomics.android.ppp.verify;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import com.gpfcomics.android.ppp.jppp.PPPconfig;
+import com.gpfcomics.android.ppp.jppp.PPPengine;
+public class PasscodeVerifierStressTest {
+
+	static final String OTHER_KEY = "0000000000000000000000000000000000000000000000000000000000000001";
+
+	private static final int THREADS = 64;
+	private static final int USERS = 50;
+	private static final int LOGINS = 2000;
+
+	@Test
+	public void noPasscodeAcceptedTwice() throws InterruptedException {
+		final PPPengine engine = new PPPengine( PasscodeVerifierBenchmarkTest.KEY );
+		final String[] passcodes = new String[400];
+		for ( int i = 0; i < passcodes.length; ++i ) {
+			passcodes[i] = engine.getPasscode( (long)i );
+		}
+		final PasscodeVerifier verifier = new PasscodeVerifier( 10, 16 );
+		for ( int u = 0; u < USERS; ++u ) {
+			verifier.register( "u" + u, PPPconfig.DEFAULT, PasscodeVerifierBenchmarkTest.KEY, 0 );
+		}
+		final ConcurrentHashMap<String, AtomicInteger> accepted =
+			new ConcurrentHashMap<String, AtomicInteger>();
+		Thread[] threads = new Thread[THREADS];
+		long start = System.nanoTime();
+		for ( int t = 0; t < THREADS; ++t ) {
+			final Random random = new Random( t );
+			threads[t] = new Thread() {
+				public void run() {
+					for ( int i = 0; i < LOGINS; ++i ) {
+						String userId = "u" + random.nextInt( USERS );
+						long next = verifier.getNextCounter( userId );
+						int counter = (int)Math.min( passcodes.length - 1, next + random.nextInt( 3 ) );
+						long result = verifier.verify( userId, passcodes[counter] );
+						if ( result >= 0 ) {
+							String key = userId + ":" + result;
+							accepted.putIfAbsent( key, new AtomicInteger() );
+							accepted.get( key ).incrementAndGet();
+						}
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for ( int t = 0; t < THREADS; ++t ) {
+			threads[t].join();
+		}
+		long nanos = System.nanoTime() - start;
+		for ( String key : accepted.keySet() ) {
+			assertEquals( key, 1, accepted.get( key ).get() );
+		}
+		// Each user's counter is one past the highest passcode accepted:
+		for ( int u = 0; u < USERS; ++u ) {
+			long highest = -1;
+			for ( long c = 0; c < passcodes.length; ++c ) {
+				if ( accepted.containsKey( "u" + u + ":" + c ) ) {
+					highest = c;
+				}
+			}
+			assertEquals( highest + 1, verifier.getNextCounter( "u" + u ) );
+		}
+		System.out.println( THREADS + " threads: " + accepted.size() + " accepted, "
+			+ (long)( THREADS * LOGINS / ( nanos / 1e9 ) ) + " logins/s, cache hits "
+			+ verifier.getCache().getHits() + ", misses " + verifier.getCache().getMisses() );
+	}
+
+	@Test
+	public void oldKeyNotAcceptedAfterReregistering() throws InterruptedException {
+		PPPengine engine = new PPPengine( PasscodeVerifierBenchmarkTest.KEY );
+		final String[] oldPasscodes = new String[10];
+		for ( int i = 0; i < oldPasscodes.length; ++i ) {
+			oldPasscodes[i] = engine.getPasscode( (long)i );
+		}
+		final PasscodeVerifier verifier = new PasscodeVerifier( 10, 4 );
+		verifier.register( "u", PPPconfig.DEFAULT, OTHER_KEY, 0 );
+		// Counts up through the registrations below; a multiple of 4 means
+		// the other key is in place:
+		final AtomicLong phase = new AtomicLong( 0 );
+		final AtomicBoolean stop = new AtomicBoolean( false );
+		final AtomicInteger bad = new AtomicInteger( 0 );
+		Thread[] threads = new Thread[8];
+		for ( int t = 0; t < threads.length; ++t ) {
+			threads[t] = new Thread() {
+				public void run() {
+					int i = 0;
+					while ( !stop.get() ) {
+						long before = phase.get();
+						long result = verifier.verify( "u", oldPasscodes[i++ % oldPasscodes.length] );
+						// An old passcode must not be accepted while the
+						// other key was in place all the way through:
+						if ( result >= 0 && before % 4 == 0 && phase.get() == before ) {
+							bad.incrementAndGet();
+						}
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for ( int i = 0; i < 10000; ++i ) {
+			// 1: old key going in, 2: old key in, 3: other key going in, 0: other key in
+			phase.incrementAndGet();
+			verifier.register( "u", PPPconfig.DEFAULT, PasscodeVerifierBenchmarkTest.KEY, 0 );
+			phase.incrementAndGet();
+			phase.incrementAndGet();
+			verifier.register( "u", PPPconfig.DEFAULT, OTHER_KEY, 0 );
+			phase.incrementAndGet();
+		}
+		stop.set( true );
+		for ( int t = 0; t < threads.length; ++t ) {
+			threads[t].join();
+		}
+		assertEquals( 0, bad.get() );
+		// Nothing cached from the old key gets in the way of the other one:
+		assertEquals( PasscodeVerifier.NO_MATCH, verifier.verify( "u", oldPasscodes[0] ) );
+		assertEquals( 0L, verifier.verify( "u", new PPPengine( OTHER_KEY ).getPasscode( 0L ) ) );
+	}
+
+	@Test
+	public void reregisteringLowerNeverAcceptsTwice() throws InterruptedException {
+		PPPengine engine = new PPPengine( OTHER_KEY );
+		final int high = 100;
+		final String[] passcodes = new String[high + 10];
+		for ( int i = 0; i < passcodes.length; ++i ) {
+			passcodes[i] = engine.getPasscode( (long)i );
+		}
+		// Widen the gap between a registration going in and its counter
+		// being set, so logins are sure to land in it:
+		CounterStore slow = new CounterStore() {
+			public void set(String userId, long nextCounter) {
+				try {
+					Thread.sleep( 1 );
+				} catch ( InterruptedException e ) {
+					Thread.currentThread().interrupt();
+				}
+				super.set( userId, nextCounter );
+			}
+		};
+		final PasscodeVerifier verifier = new PasscodeVerifier( 10, 4, slow );
+		final ConcurrentHashMap<String, AtomicInteger> accepted =
+			new ConcurrentHashMap<String, AtomicInteger>();
+		final AtomicInteger round = new AtomicInteger( 0 );
+		final AtomicBoolean stop = new AtomicBoolean( false );
+		Thread[] threads = new Thread[4];
+		for ( int t = 0; t < threads.length; ++t ) {
+			final Random random = new Random( t );
+			threads[t] = new Thread() {
+				public void run() {
+					while ( !stop.get() ) {
+						// An acceptance of one of the new key's passcodes
+						// belongs to this round's registration if the round
+						// hasn't moved on by the time it returns
+						int r = round.get();
+						int counter = high + random.nextInt( 10 );
+						if ( random.nextBoolean() ) {
+							counter = (int)Math.max( 0, Math.min( passcodes.length - 1,
+								verifier.getNextCounter( "u" ) + random.nextInt( 3 ) ) );
+						}
+						long result = verifier.verify( "u", passcodes[counter] );
+						if ( result >= 0 && round.get() == r ) {
+							count( accepted, r + ":" + result );
+						}
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for ( int r = 1; r <= 200; ++r ) {
+			// The old key, well along its card:
+			verifier.register( "u", PPPconfig.DEFAULT, PasscodeVerifierBenchmarkTest.KEY, high );
+			round.set( r );
+			// The new key, from the start:
+			verifier.register( "u", PPPconfig.DEFAULT, OTHER_KEY, 0 );
+			for ( int c = 0; c < passcodes.length; ++c ) {
+				long result = verifier.verify( "u", passcodes[c] );
+				if ( result >= 0 ) {
+					count( accepted, r + ":" + result );
+				}
+			}
+		}
+		stop.set( true );
+		for ( int t = 0; t < threads.length; ++t ) {
+			threads[t].join();
+		}
+		for ( String key : accepted.keySet() ) {
+			assertEquals( key, 1, accepted.get( key ).get() );
+		}
+	}
+
+	private static void count(ConcurrentHashMap<String, AtomicInteger> accepted, String key) {
+		accepted.putIfAbsent( key, new AtomicInteger() );
+		accepted.get( key ).incrementAndGet();
+	}
+}
@@ -0,0 +1,251 @@
+/**
+ * @(#)ShardedVerifierFailoverTest.java
+ *
+ * Runs logins against a ShardedVerifier while nodes are added and removed,
+ * checking that no passcode is ever accepted twice across a move, and times
+ * verification throughput and how long a failover takes.  Also checks that
+ * a user registered again before their node fails comes up on the new owner
+ * at the new registration's counter, that a node's log survives being
+ * reopened from its file and being compacted, and that a user's key is
+ * zeroed once they are registered again or unregistered.
+ */
+
+package com.gpfcomics.android.ppp.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import com.gpfcomics.android.ppp.jppp.PPPconfig;
+import com.gpfcomics.android.ppp.jppp.PPPengine;
+public class ShardedVerifierFailoverTest {
+
+	private static final int USERS = 200;
+	private static final int THREADS = 16;
+
+	@Test
+	public void noDoubleAcceptanceAcrossFailover() throws Exception {
+		PPPengine engine = new PPPengine( PasscodeVerifierBenchmarkTest.KEY );
+		final String[] passcodes = new String[5000];
+		for ( int i = 0; i < passcodes.length; ++i ) {
+			passcodes[i] = engine.getPasscode( (long)i );
+		}
+		File logFile = File.createTempFile( "ppp-n2", ".log" );
+		logFile.delete();
+		try {
+			final ShardedVerifier sharded = new ShardedVerifier( 10, 64 );
+			sharded.addNode( "n1" );
+			sharded.addNode( "n2", logFile );
+			sharded.addNode( "n3" );
+			for ( int u = 0; u < USERS; ++u ) {
+				sharded.register( "u" + u, PPPconfig.DEFAULT, PasscodeVerifierBenchmarkTest.KEY, 0 );
+			}
+			Map<String, String> owners = new HashMap<String, String>();
+			for ( int u = 0; u < USERS; ++u ) {
+				owners.put( "u" + u, sharded.getOwner( "u" + u ) );
+			}
+			final ConcurrentHashMap<String, AtomicInteger> accepted =
+				new ConcurrentHashMap<String, AtomicInteger>();
+			final AtomicBoolean stop = new AtomicBoolean( false );
+			final AtomicLong logins = new AtomicLong( 0 );
+			Thread[] threads = new Thread[THREADS];
+			for ( int t = 0; t < THREADS; ++t ) {
+				final Random random = new Random( t );
+				threads[t] = new Thread() {
+					public void run() {
+						while ( !stop.get() ) {
+							String userId = "u" + random.nextInt( USERS );
+							long next = sharded.getNextCounter( userId );
+							if ( next < 0 || next >= passcodes.length - 3 ) {
+								continue;
+							}
+							// Sometimes replay the one just used
+							int counter = (int)Math.max( 0, next + random.nextInt( 4 ) - 1 );
+							long result = sharded.verify( userId, passcodes[counter] );
+							logins.incrementAndGet();
+							if ( result >= 0 ) {
+								String key = userId + ":" + result;
+								accepted.putIfAbsent( key, new AtomicInteger() );
+								accepted.get( key ).incrementAndGet();
+							}
+						}
+					}
+				};
+				threads[t].start();
+			}
+			long start = System.nanoTime();
+			Thread.sleep( 300 );
+			sharded.addNode( "n4" );
+			// Only users whose points now fall to the new node move:
+			for ( int u = 0; u < USERS; ++u ) {
+				String owner = sharded.getOwner( "u" + u );
+				assertTrue( owner.equals( owners.get( "u" + u ) ) || owner.equals( "n4" ) );
+			}
+			Thread.sleep( 300 );
+			long failoverStart = System.nanoTime();
+			sharded.removeNode( "n2" );
+			long failover = System.nanoTime() - failoverStart;
+			Thread.sleep( 300 );
+			sharded.removeNode( "n1" );
+			Thread.sleep( 200 );
+			stop.set( true );
+			for ( int t = 0; t < THREADS; ++t ) {
+				threads[t].join();
+			}
+			long nanos = System.nanoTime() - start;
+			for ( String key : accepted.keySet() ) {
+				assertEquals( key, 1, accepted.get( key ).get() );
+			}
+			assertEquals( 2, sharded.getNodeNames().size() );
+			for ( int u = 0; u < USERS; ++u ) {
+				assertFalse( sharded.getOwner( "u" + u ).equals( "n1" ) );
+				assertFalse( sharded.getOwner( "u" + u ).equals( "n2" ) );
+			}
+			System.out.println( THREADS + " threads: " + (long)( logins.get() / ( nanos / 1e9 ) )
+				+ " logins/s, " + accepted.size() + " accepted, failover of n2 took "
+				+ ( failover / 1000000 ) + " ms" );
+			// The failed node's log reloads from its file:
+			CounterLog reopened = new CounterLog( logFile );
+			try {
+				assertTrue( reopened.size() > 0 );
+			} finally {
+				reopened.close();
+			}
+		} finally {
+			logFile.delete();
+		}
+	}
+
+	@Test
+	public void reregistrationSurvivesFailover() {
+		PPPengine oldKey = new PPPengine( PasscodeVerifierBenchmarkTest.KEY );
+		PPPengine newKey = new PPPengine( PasscodeVerifierStressTest.OTHER_KEY );
+		ShardedVerifier sharded = new ShardedVerifier( 10, 8 );
+		sharded.addNode( "a" );
+		sharded.addNode( "b" );
+		sharded.register( "u", PPPconfig.DEFAULT, PasscodeVerifierBenchmarkTest.KEY, 0 );
+		for ( long c = 0; c < 5; ++c ) {
+			assertEquals( c, sharded.verify( "u", oldKey.getPasscode( c ) ) );
+		}
+		// A new card, starting from the beginning again:
+		sharded.register( "u", PPPconfig.DEFAULT, PasscodeVerifierStressTest.OTHER_KEY, 0 );
+		assertEquals( 0L, sharded.verify( "u", newKey.getPasscode( 0L ) ) );
+		String owner = sharded.getOwner( "u" );
+		sharded.removeNode( owner );
+		assertFalse( owner.equals( sharded.getOwner( "u" ) ) );
+		assertEquals( 1L, sharded.getNextCounter( "u" ) );
+		assertEquals( PasscodeVerifier.NO_MATCH, sharded.verify( "u", newKey.getPasscode( 0L ) ) );
+		assertEquals( 1L, sharded.verify( "u", newKey.getPasscode( 1L ) ) );
+	}
+
+	@Test
+	public void logReplaysResetsAndAdvances() throws IOException {
+		File logFile = File.createTempFile( "ppp-log", ".log" );
+		logFile.delete();
+		try {
+			CounterLog log = new CounterLog( logFile );
+			log.reset( "u", 0 );
+			log.append( "u", 5 );
+			log.append( "u", 3 );
+			log.reset( "u", 2 );
+			log.append( "u", 4 );
+			log.reset( "v", 7 );
+			log.close();
+			CounterLog reopened = new CounterLog( logFile );
+			CounterStore store = new CounterStore();
+			assertEquals( 6L, reopened.applyTo( store, 0 ) );
+			reopened.close();
+			assertEquals( 4L, store.get( "u" ) );
+			assertEquals( 7L, store.get( "v" ) );
+		} finally {
+			logFile.delete();
+		}
+	}
+
+	@Test
+	public void logCompactsToOneResetPerUser() throws IOException {
+		File logFile = File.createTempFile( "ppp-log", ".log" );
+		logFile.delete();
+		try {
+			CounterLog log = new CounterLog( logFile );
+			log.reset( "u", 0 );
+			log.append( "u", 5 );
+			log.append( "u", 3 );
+			log.reset( "v", 7 );
+			log.append( "v", 9 );
+			log.reset( "u", 2 );
+			log.append( "u", 4 );
+			// A follower that has kept up so far:
+			CounterStore follower = new CounterStore();
+			long position = log.applyTo( follower, 0 );
+			assertEquals( 7L, position );
+			assertEquals( 2L, log.compact() );
+			assertEquals( 2L, log.size() );
+			// Sequence numbers carry on after the snapshot:
+			assertEquals( 9L, log.append( "v", 12 ) );
+			assertEquals( 10L, log.applyTo( follower, position ) );
+			assertEquals( 4L, follower.get( "u" ) );
+			assertEquals( 12L, follower.get( "v" ) );
+			log.close();
+			// The file holds just the snapshot and what came after it:
+			CounterLog reopened = new CounterLog( logFile );
+			CounterStore store = new CounterStore();
+			assertEquals( 3L, reopened.applyTo( store, 0 ) );
+			reopened.close();
+			assertEquals( 4L, store.get( "u" ) );
+			assertEquals( 12L, store.get( "v" ) );
+		} finally {
+			logFile.delete();
+		}
+	}
+
+	@Test
+	public void keysAreWipedWhenReplaced() throws Exception {
+		ShardedVerifier sharded = new ShardedVerifier( 10, 8 );
+		sharded.addNode( "a" );
+		sharded.register( "u", PPPconfig.DEFAULT, PasscodeVerifierBenchmarkTest.KEY, 0 );
+		byte[] first = registeredKey( sharded, "u" );
+		assertTrue( nonZero( first ) );
+		sharded.register( "u", PPPconfig.DEFAULT, PasscodeVerifierStressTest.OTHER_KEY, 0 );
+		assertFalse( nonZero( first ) );
+		byte[] second = registeredKey( sharded, "u" );
+		// The node's verifier has its own copy, so moving still works:
+		sharded.addNode( "b" );
+		sharded.removeNode( "a" );
+		assertEquals( 0L, sharded.verify( "u",
+			new PPPengine( PasscodeVerifierStressTest.OTHER_KEY ).getPasscode( 0L ) ) );
+		sharded.unregister( "u" );
+		assertFalse( nonZero( second ) );
+	}
+
+	/** The key array ShardedVerifier holds for a user's registration */
+	private static byte[] registeredKey(ShardedVerifier sharded, String userId) throws Exception {
+		Field users = ShardedVerifier.class.getDeclaredField( "users" );
+		users.setAccessible( true );
+		Object registration = ( (Map<?, ?>)users.get( sharded ) ).get( userId );
+		Field key = registration.getClass().getDeclaredField( "sequenceKey" );
+		key.setAccessible( true );
+		return (byte[])key.get( registration );
+	}
+
+	private static boolean nonZero(byte[] values) {
+		for ( int i = 0; i < values.length; ++i ) {
+			if ( values[i] != 0 ) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
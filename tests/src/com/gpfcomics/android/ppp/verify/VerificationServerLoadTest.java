@@ -0,0 +1,148 @@
+/**
+ * @(#)VerificationServerLoadTest.java
+ *
+ * A load-test client for VerificationServer.  Several client threads, each
+ * logging in as its own user, send /verify requests over HTTP with the
+ * user's passcodes in order, plus the odd replay that must be refused.  The
+ * latency of every request is recorded and the 50th, 99th and 99.9th
+ * percentiles printed.  Also checks the plain error responses.
+ */
+
+package com.gpfcomics.android.ppp.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.gpfcomics.android.ppp.jppp.PPPconfig;
+import com.gpfcomics.android.ppp.jppp.PPPengine;
+public class VerificationServerLoadTest {
+
+	private static final int CLIENTS = 8;
+	private static final int REQUESTS = 500;
+
+	private PasscodeVerifier verifier;
+	private VerificationServer server;
+	private String[] passcodes;
+
+	@Before
+	public void setUp() throws IOException {
+		verifier = new PasscodeVerifier( 10 );
+		for ( int c = 0; c < CLIENTS; ++c ) {
+			verifier.register( "u" + c, PPPconfig.DEFAULT, PasscodeVerifierBenchmarkTest.KEY, 0 );
+		}
+		PPPengine engine = new PPPengine( PasscodeVerifierBenchmarkTest.KEY );
+		passcodes = new String[REQUESTS];
+		for ( int i = 0; i < passcodes.length; ++i ) {
+			passcodes[i] = engine.getPasscode( (long)i );
+		}
+		server = new VerificationServer( new VerificationService( verifier ), 0 );
+		server.start();
+	}
+
+	@After
+	public void tearDown() {
+		server.stop( 0 );
+	}
+
+	@Test
+	public void errorResponses() throws IOException {
+		assertEquals( VerificationService.BAD_REQUEST, get( "/verify?user=u0" ) );
+		assertEquals( VerificationService.NOT_FOUND, get( "/next?user=nobody" ) );
+		assertEquals( VerificationService.NOT_FOUND, get( "/elsewhere" ) );
+		assertEquals( VerificationService.FORBIDDEN, get( "/verify?user=u0&passcode=0000" ) );
+		assertEquals( VerificationService.OK, get( "/next?user=u0" ) );
+	}
+
+	@Test
+	public void latency() throws Exception {
+		final long[][] nanos = new long[CLIENTS][REQUESTS];
+		final AtomicInteger bad = new AtomicInteger( 0 );
+		Thread[] clients = new Thread[CLIENTS];
+		long start = System.nanoTime();
+		for ( int c = 0; c < CLIENTS; ++c ) {
+			final int client = c;
+			clients[c] = new Thread() {
+				public void run() {
+					try {
+						for ( int i = 0; i < REQUESTS; ++i ) {
+							// Every tenth request replays the passcode just
+							// used, which has to be refused; the next one
+							// then skips a passcode, still within the window
+							boolean replay = i % 10 == 9;
+							// Passcodes can hold characters such as "&" and "+"
+							String passcode = URLEncoder.encode( passcodes[replay ? i - 1 : i],
+								"UTF-8" );
+							long begin = System.nanoTime();
+							int status = get( "/verify?user=u" + client + "&passcode=" + passcode );
+							nanos[client][i] = System.nanoTime() - begin;
+							if ( status != ( replay ? VerificationService.FORBIDDEN
+									: VerificationService.OK ) ) {
+								bad.incrementAndGet();
+							}
+						}
+					} catch ( IOException e ) {
+						bad.incrementAndGet();
+					}
+				}
+			};
+			clients[c].start();
+		}
+		for ( int c = 0; c < CLIENTS; ++c ) {
+			clients[c].join();
+		}
+		long total = System.nanoTime() - start;
+		assertEquals( 0, bad.get() );
+		long[] all = new long[CLIENTS * REQUESTS];
+		for ( int c = 0; c < CLIENTS; ++c ) {
+			System.arraycopy( nanos[c], 0, all, c * REQUESTS, REQUESTS );
+		}
+		Arrays.sort( all );
+		System.out.println( CLIENTS + " clients, " + all.length + " requests, "
+			+ ( server.usesVirtualThreads() ? "virtual threads" : "cached thread pool" ) + ": "
+			+ (long)( all.length / ( total / 1e9 ) ) + " requests/s, p50 "
+			+ micros( percentile( all, 0.50 ) ) + " us, p99 " + micros( percentile( all, 0.99 ) )
+			+ " us, p999 " + micros( percentile( all, 0.999 ) ) + " us" );
+		assertTrue( percentile( all, 0.50 ) <= percentile( all, 0.999 ) );
+	}
+
+	/** Send a GET and read the whole response, returning its status */
+	private int get(String pathAndQuery) throws IOException {
+		URL url = new URL( "http://127.0.0.1:" + server.getPort() + pathAndQuery );
+		HttpURLConnection connection = (HttpURLConnection)url.openConnection();
+		int status = connection.getResponseCode();
+		InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+		if ( in != null ) {
+			// Drain the body so the connection can be reused
+			ByteArrayOutputStream body = new ByteArrayOutputStream();
+			byte[] buffer = new byte[256];
+			int n;
+			while ( ( n = in.read( buffer ) ) > 0 ) {
+				body.write( buffer, 0, n );
+			}
+			in.close();
+		}
+		return status;
+	}
+
+	/** The value below which the given fraction of the sorted samples fall */
+	private static long percentile(long[] sorted, double fraction) {
+		int index = (int)Math.ceil( fraction * sorted.length ) - 1;
+		return sorted[Math.max( 0, Math.min( sorted.length - 1, index ) )];
+	}
+
+	private static long micros(long nanos) {
+		return nanos / 1000;
+	}
+}
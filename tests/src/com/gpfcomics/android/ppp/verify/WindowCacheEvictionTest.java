@@ -0,0 +1,124 @@
+/**
+ * @(#)WindowCacheEvictionTest.java
+ *
+ * Checks that a window evicted from a WindowCache leaves nothing of the
+ * user's key behind: the expanded key schedule and the cached passcodes are
+ * zeroed.  Also checks that destroying a JCA cipher re-keys the workers of
+ * threads other than the one calling destroy(), which the cache relies on
+ * if it is ever moved off the jppp backend.
+ */
+
+package com.gpfcomics.android.ppp.verify;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Field;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.gpfcomics.android.ppp.jppp.Hex;
+import com.gpfcomics.android.ppp.jppp.PPPcipher;
+import com.gpfcomics.android.ppp.jppp.PPPciphers;
+import com.gpfcomics.android.ppp.jppp.PPPconfig;
+import com.gpfcomics.android.ppp.jppp.PPPengine;
+public class WindowCacheEvictionTest {
+
+	@Test
+	public void evictionZeroesKeySchedule() throws Exception {
+		WindowCache cache = new WindowCache( 1 );
+		byte[] key = Hex.decode( PasscodeVerifierBenchmarkTest.KEY );
+		String passcode = new PPPengine( PasscodeVerifierBenchmarkTest.KEY ).getPasscode( 3L );
+		assertEquals( 3, cache.find( "a", PPPconfig.DEFAULT, key, 0L, 10, passcode ) );
+		Object window = ( (Map<?, ?>)field( cache, "entries" ) ).get( "a" );
+		PPPengine engine = (PPPengine)field( window, "engine" );
+		assertEquals( PPPciphers.JPPP, engine.getCipherName() );
+		int[] schedule = (int[])field( field( field( engine, "cipher" ), "rijndael" ), "rek" );
+		char[] chars = (char[])field( window, "chars" );
+		assertTrue( nonZero( schedule ) );
+		assertTrue( nonZero( chars ) );
+		// A second user pushes the first one out:
+		cache.find( "b", PPPconfig.DEFAULT, key.clone(), 0L, 10, passcode );
+		assertEquals( 1L, cache.getEvictions() );
+		assertNull( field( window, "engine" ) );
+		assertTrue( !nonZero( schedule ) );
+		assertTrue( !nonZero( chars ) );
+	}
+
+	@Test
+	public void jcaDestroyRekeysOtherThreads() throws Exception {
+		if ( !PPPciphers.isVerified( PPPciphers.JCA ) ) {
+			return;
+		}
+		final PPPcipher cipher = PPPciphers.create( PPPciphers.JCA,
+			Hex.decode( PasscodeVerifierBenchmarkTest.KEY ) );
+		final byte[] before = new byte[16];
+		final byte[] after = new byte[16];
+		final Object lock = new Object();
+		final boolean[] destroyed = { false };
+		// A thread with its own worker, which waits while this one destroys:
+		Thread other = new Thread() {
+			public void run() {
+				cipher.encryptCounters( 5L, 1, before, 0 );
+				synchronized ( lock ) {
+					lock.notifyAll();
+					while ( !destroyed[0] ) {
+						try {
+							lock.wait();
+						} catch ( InterruptedException e ) {
+							return;
+						}
+					}
+				}
+				cipher.encryptCounters( 5L, 1, after, 0 );
+			}
+		};
+		synchronized ( lock ) {
+			other.start();
+			lock.wait();
+			cipher.destroy();
+			destroyed[0] = true;
+			lock.notifyAll();
+		}
+		other.join();
+		byte[] blank = new byte[16];
+		PPPciphers.create( PPPciphers.JCA, new byte[32] ).encryptCounters( 5L, 1, blank, 0 );
+		assertTrue( nonZero( before ) );
+		assertArrayEquals( blank, after );
+	}
+
+	private static Object field(Object owner, String name) throws Exception {
+		Field field = owner.getClass().getDeclaredField( name );
+		field.setAccessible( true );
+		return field.get( owner );
+	}
+
+	private static boolean nonZero(int[] values) {
+		for ( int i = 0; i < values.length; ++i ) {
+			if ( values[i] != 0 ) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean nonZero(char[] values) {
+		for ( int i = 0; i < values.length; ++i ) {
+			if ( values[i] != 0 ) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean nonZero(byte[] values) {
+		for ( int i = 0; i < values.length; ++i ) {
+			if ( values[i] != 0 ) {
+				return true;
+			}
+		}
+		return false;
+	}
+}